@@ -0,0 +1,218 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs curl generation tasks on background worker threads.
+ *
+ * <p>Tasks are kept in a lock-free queue bounded by a given capacity. What happens when the queue
+ * is full is defined by {@link OverflowPolicy}. Worker threads are started lazily and stop after
+ * being idle for a while, so processors that are no longer used do not leak threads. Tasks still
+ * waiting in the queue when JVM shuts down are run by a shutdown hook, in order, as on {@link
+ * #close()}.
+ */
+final class AsyncCurlProcessor implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(AsyncCurlProcessor.class);
+
+  private static final long IDLE_TIMEOUT_SECONDS = 60;
+  private static final long CLOSING_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+  private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+  private static final Set<AsyncCurlProcessor> RUNNING = ConcurrentHashMap.newKeySet();
+
+  static {
+    Runtime.getRuntime()
+        .addShutdownHook(
+            new Thread(() -> RUNNING.forEach(AsyncCurlProcessor::close), "curl-logger-shutdown"));
+  }
+
+  private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+  // Number of tasks in the queue, including slots reserved by producers that are about to offer
+  private final AtomicInteger size = new AtomicInteger();
+  // Signals workers about available tasks; may exceed number of queued tasks after DROP_OLDEST
+  private final Semaphore available = new Semaphore(0);
+  // Number of tasks accepted, but not yet finished, including those being run
+  private final AtomicInteger unfinished = new AtomicInteger();
+  private final AtomicInteger workers = new AtomicInteger();
+  private final AtomicLong dropped = new AtomicLong();
+  private final int capacity;
+  private final int maxWorkers;
+  private final OverflowPolicy overflowPolicy;
+  private volatile boolean closed;
+
+  AsyncCurlProcessor(int capacity, int maxWorkers, OverflowPolicy overflowPolicy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be positive: " + capacity);
+    }
+    if (maxWorkers < 1) {
+      throw new IllegalArgumentException(
+          "Number of worker threads must be positive: " + maxWorkers);
+    }
+    this.capacity = capacity;
+    this.maxWorkers = maxWorkers;
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Schedules a task to be run by one of worker threads. Once the processor is closed, tasks are
+   * run on the calling thread.
+   *
+   * @param task task to run
+   */
+  void submit(Runnable task) {
+    if (closed) {
+      task.run();
+      return;
+    }
+    if (!reserveSlot()) {
+      if (closed) {
+        task.run();
+      } else {
+        dropped.incrementAndGet();
+      }
+      return;
+    }
+    queue.offer(task);
+    available.release();
+    ensureWorker();
+  }
+
+  /** Returns number of tasks not run because the queue was full. */
+  long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /** Returns number of tasks waiting in the queue. */
+  int getPendingCount() {
+    return size.get();
+  }
+
+  /**
+   * Stops accepting new tasks to the queue and waits until all pending tasks have been run. Pending
+   * tasks are left to worker threads, so that they keep their order; the calling thread runs them
+   * only if there are no workers left.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    while (unfinished.get() > 0) {
+      if (workers.get() == 0) {
+        drain();
+      }
+      LockSupport.parkNanos(this, CLOSING_PARK_NANOS);
+    }
+  }
+
+  private boolean reserveSlot() {
+    return overflowPolicy.reserve(this::tryReserveSlot, this::dropOldest, () -> closed);
+  }
+
+  private void dropOldest() {
+    if (queue.poll() != null) {
+      size.decrementAndGet();
+      unfinished.decrementAndGet();
+      dropped.incrementAndGet();
+    }
+  }
+
+  private boolean tryReserveSlot() {
+    int current;
+    do {
+      current = size.get();
+      if (current >= capacity) {
+        return false;
+      }
+    } while (!size.compareAndSet(current, current + 1));
+    // Counted as soon as reserved, so that closing waits for a task that is about to be offered
+    unfinished.incrementAndGet();
+    return true;
+  }
+
+  private void ensureWorker() {
+    if (!tryAddWorker()) {
+      return;
+    }
+    Thread worker = new Thread(this::work, "curl-logger-async-" + THREAD_COUNTER.incrementAndGet());
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  private void work() {
+    boolean counted = true;
+    try {
+      while (true) {
+        if (!available.tryAcquire(IDLE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+          retire();
+          counted = false;
+          // A task might have been submitted after timeout, but before the worker has retired
+          if (available.availablePermits() == 0 || !tryAddWorker()) {
+            return;
+          }
+          counted = true;
+          continue;
+        }
+        runNext();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Also when a task throws an Error, or closing would wait for this worker forever
+      if (counted) {
+        retire();
+      }
+    }
+  }
+
+  private void retire() {
+    if (workers.decrementAndGet() == 0) {
+      RUNNING.remove(this);
+      if (workers.get() > 0) {
+        RUNNING.add(this);
+      }
+    }
+  }
+
+  private boolean tryAddWorker() {
+    int current;
+    do {
+      current = workers.get();
+      if (current >= maxWorkers) {
+        return false;
+      }
+    } while (!workers.compareAndSet(current, current + 1));
+    RUNNING.add(this);
+    return true;
+  }
+
+  private void drain() {
+    while (runNext()) {
+      // keep running until the queue is empty
+    }
+  }
+
+  private boolean runNext() {
+    Runnable task = queue.poll();
+    if (task == null) {
+      return false;
+    }
+    size.decrementAndGet();
+    try {
+      task.run();
+    } catch (RuntimeException e) {
+      log.warn("Failed to process curl command asynchronously", e);
+    } finally {
+      unfinished.decrementAndGet();
+    }
+    return true;
+  }
+}
@@ -0,0 +1,276 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Request body read from HTTP entity, respecting {@link Options#maxInlineBodySize()}. Bodies within
+ * the limit are kept in memory as a whole. Oversized bodies are never fully held in memory: they
+ * are either truncated, with the remaining bytes only digested, or streamed to a file.
+ */
+final class CapturedBody {
+
+  private static final Logger log = LoggerFactory.getLogger(CapturedBody.class);
+  private static final int BUFFER_SIZE = 8192;
+  private static final long SPOOL_CHUNK_SIZE = 1024 * 1024;
+  // Largest array some JVMs can allocate
+  private static final int MAX_INLINE_SIZE = Integer.MAX_VALUE - 8;
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private final byte[] bytes;
+  private final Charset charset;
+  private final long length;
+  private final String sha256;
+  private final Path file;
+
+  private CapturedBody(byte[] bytes, Charset charset, long length, String sha256, Path file) {
+    this.bytes = bytes;
+    this.charset = charset;
+    this.length = length;
+    this.sha256 = sha256;
+    this.file = file;
+  }
+
+  /**
+   * Reads the whole content of a given stream.
+   *
+   * @param in stream with request body
+   * @param charset charset to decode the body with
+   * @param expectedLength declared length of the body or negative if unknown
+   * @param options options defining size limit and what to do with oversized bodies
+   * @return captured body
+   * @throws IOException if failed to read the body or to spool it to a file
+   */
+  static CapturedBody read(InputStream in, Charset charset, long expectedLength, Options options)
+      throws IOException {
+    Sink sink = new Sink(charset, expectedLength, options);
+    try {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      int n;
+      while (!sink.isSpooling() && (n = in.read(buffer)) != -1) {
+        sink.write(buffer, 0, n);
+      }
+      if (sink.isSpooling()) {
+        sink.transferFrom(Channels.newChannel(in));
+      }
+      return sink.finish();
+    } catch (IOException | RuntimeException e) {
+      sink.discard();
+      throw e;
+    }
+  }
+
+  /**
+   * Wraps a body already held in memory. The array is not copied unless the body exceeds the limit.
+   *
+   * @param bytes request body
+   * @param charset charset to decode the body with
+   * @param options options defining size limit and what to do with oversized bodies
+   * @return captured body
+   * @throws IOException if failed to spool the body to a file
+   */
+  static CapturedBody of(byte[] bytes, Charset charset, Options options) throws IOException {
+    if (bytes.length <= options.maxInlineBodySize()) {
+      return new CapturedBody(bytes, charset, bytes.length, null, null);
+    }
+    Sink sink = new Sink(charset, bytes.length, options);
+    try {
+      sink.write(bytes, 0, bytes.length);
+      return sink.finish();
+    } catch (IOException | RuntimeException e) {
+      sink.discard();
+      throw e;
+    }
+  }
+
+  /**
+   * Refers to a body that is sent from a file, without reading it.
+   *
+   * @param file file with request body
+   * @param charset charset to decode the body with
+   * @return captured body
+   */
+  static CapturedBody ofFile(Path file, Charset charset) {
+    return new CapturedBody(null, charset, file.toFile().length(), null, file);
+  }
+
+  /**
+   * Collects request body written in chunks, e.g., while it is being sent, keeping in memory at
+   * most {@link Options#maxInlineBodySize()} bytes. Not thread-safe.
+   */
+  static final class Sink {
+
+    private final Charset charset;
+    private final long limit;
+    private final OversizedBodyPolicy oversizedBodyPolicy;
+    private final Path spoolDirectory;
+    private final ByteArrayOutputStream inline;
+    private long length;
+    private byte[] prefix;
+    private MessageDigest digest;
+    private Path file;
+    private FileChannel spool;
+
+    Sink(Charset charset, long expectedLength, Options options) {
+      this.charset = charset;
+      this.limit = Math.min(options.maxInlineBodySize(), MAX_INLINE_SIZE);
+      this.oversizedBodyPolicy = options.oversizedBodyPolicy();
+      this.spoolDirectory = options.bodySpoolDirectory();
+      this.inline =
+          new ByteArrayOutputStream(
+              (int) Math.max(32, Math.min(Math.min(expectedLength, limit), BUFFER_SIZE * 8)));
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+      if (digest == null && spool == null) {
+        if (inline.size() + (long) len <= limit) {
+          inline.write(b, off, len);
+          length += len;
+          return;
+        }
+        overflow(b, off);
+      }
+      if (spool != null) {
+        writeFully(spool, ByteBuffer.wrap(b, off, len));
+      } else {
+        digest.update(b, off, len);
+      }
+      length += len;
+    }
+
+    boolean isSpooling() {
+      return spool != null;
+    }
+
+    void transferFrom(ReadableByteChannel in) throws IOException {
+      long transferred;
+      while ((transferred = spool.transferFrom(in, spool.position(), SPOOL_CHUNK_SIZE)) > 0) {
+        spool.position(spool.position() + transferred);
+        length += transferred;
+      }
+    }
+
+    CapturedBody finish() throws IOException {
+      if (spool != null) {
+        FileChannel channel = spool;
+        spool = null;
+        channel.close();
+        return new CapturedBody(null, charset, length, null, file);
+      }
+      if (digest != null) {
+        return new CapturedBody(prefix, charset, length, toHex(digest.digest()), null);
+      }
+      return new CapturedBody(inline.toByteArray(), charset, length, null, null);
+    }
+
+    /** Releases the file the body is being spooled to, if any, and deletes it. */
+    void discard() {
+      try {
+        if (spool != null) {
+          spool.close();
+        }
+        if (file != null) {
+          Files.deleteIfExists(file);
+        }
+      } catch (IOException e) {
+        log.warn("Failed to delete spooled request body {}", file, e);
+      } finally {
+        spool = null;
+        file = null;
+      }
+    }
+
+    private void overflow(byte[] b, int off) throws IOException {
+      byte[] inlineBytes = inline.toByteArray();
+      if (oversizedBodyPolicy == OversizedBodyPolicy.SPOOL_TO_FILE) {
+        file = Files.createTempFile(spoolDirectory, "curl-body-", ".bin");
+        spool = FileChannel.open(file, StandardOpenOption.WRITE);
+        writeFully(spool, ByteBuffer.wrap(inlineBytes));
+      } else {
+        digest = sha256();
+        digest.update(inlineBytes);
+        prefix = Arrays.copyOf(inlineBytes, (int) limit);
+        System.arraycopy(b, off, prefix, inlineBytes.length, (int) limit - inlineBytes.length);
+      }
+    }
+  }
+
+  private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      out.write(buffer);
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // Every Java platform is required to support SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String toHex(byte[] bytes) {
+    char[] hex = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+      hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+    }
+    return new String(hex);
+  }
+
+  /** Returns charset to decode the body with. */
+  Charset getCharset() {
+    return charset;
+  }
+
+  /** Returns total length of the body in bytes, including truncated or spooled bytes. */
+  long getLength() {
+    return length;
+  }
+
+  /** Returns file the body is sent from or has been spooled to; {@code null} if kept in memory. */
+  Path getFile() {
+    return file;
+  }
+
+  boolean isTruncated() {
+    return sha256 != null;
+  }
+
+  /** Returns the body, or its beginning followed by a truncation marker if it was truncated. */
+  byte[] toBytes() {
+    if (!isTruncated()) {
+      return bytes;
+    }
+    byte[] marker = truncationMarker().getBytes(StandardCharsets.US_ASCII);
+    byte[] result = Arrays.copyOf(bytes, bytes.length + marker.length);
+    System.arraycopy(marker, 0, result, bytes.length, marker.length);
+    return result;
+  }
+
+  /** Returns the body decoded as text, followed by a truncation marker if it was truncated. */
+  String toText() {
+    String text = new String(bytes, charset);
+    return isTruncated() ? text + truncationMarker() : text;
+  }
+
+  private String truncationMarker() {
+    return "...[truncated, " + length + " bytes in total, SHA-256: " + sha256 + "]";
+  }
+}
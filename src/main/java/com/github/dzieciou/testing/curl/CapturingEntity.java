@@ -0,0 +1,163 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wraps non-repeatable HTTP entity and copies its content into a {@link CapturedBody.Sink} while
+ * HTTP client sends it, so that the entity is neither read twice nor buffered up front. Once the
+ * entity has been fully written, captured body is passed to a callback. If writing it fails or it
+ * is closed before the end, the callback is never called, as the body captured would be partial.
+ * Oversized body is spooled to a file only once it is being written; if capturing or sending it
+ * fails, the file is deleted.
+ */
+final class CapturingEntity extends HttpEntityWrapper {
+
+  private static final Logger log = LoggerFactory.getLogger(CapturingEntity.class);
+
+  private final CapturedBody.Sink sink;
+  private final Consumer<CapturedBody> onCaptured;
+  private final AtomicBoolean completed = new AtomicBoolean();
+  private IOException captureFailure;
+
+  CapturingEntity(
+      HttpEntity wrappedEntity, CapturedBody.Sink sink, Consumer<CapturedBody> onCaptured) {
+    super(wrappedEntity);
+    this.sink = sink;
+    this.onCaptured = onCaptured;
+  }
+
+  @Override
+  public void writeTo(OutputStream outStream) throws IOException {
+    try {
+      wrappedEntity.writeTo(new CapturingOutputStream(outStream));
+    } catch (IOException | RuntimeException | Error e) {
+      abandon();
+      throw e;
+    }
+    complete();
+  }
+
+  @Override
+  public InputStream getContent() throws IOException {
+    InputStream content = wrappedEntity.getContent();
+    return content != null ? new CapturingInputStream(content) : null;
+  }
+
+  private void capture(byte[] b, int off, int len) {
+    if (captureFailure != null || len <= 0) {
+      return;
+    }
+    try {
+      sink.write(b, off, len);
+    } catch (IOException e) {
+      // Capturing must never break sending the request
+      captureFailure = e;
+    }
+  }
+
+  private void complete() {
+    if (!completed.compareAndSet(false, true)) {
+      return;
+    }
+    CapturedBody body;
+    try {
+      if (captureFailure != null) {
+        throw captureFailure;
+      }
+      body = sink.finish();
+    } catch (IOException e) {
+      sink.discard();
+      log.warn("Failed to capture request body", e);
+      return;
+    }
+    onCaptured.accept(body);
+  }
+
+  private void abandon() {
+    if (completed.compareAndSet(false, true)) {
+      sink.discard();
+      log.debug("Request body not captured, as it has not been sent in whole");
+    }
+  }
+
+  private final class CapturingOutputStream extends FilterOutputStream {
+
+    CapturingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      capture(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+      capture(b, off, len);
+    }
+  }
+
+  private final class CapturingInputStream extends FilterInputStream {
+
+    CapturingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = in.read();
+      if (b == -1) {
+        complete();
+      } else {
+        capture(new byte[] {(byte) b}, 0, 1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = in.read(b, off, len);
+      if (n == -1) {
+        complete();
+      } else {
+        capture(b, off, n);
+      }
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      // Skipped bytes would be missing from captured body
+      byte[] buffer = new byte[(int) Math.min(n, 8192)];
+      int read = read(buffer, 0, buffer.length);
+      return Math.max(read, 0);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        in.close();
+      } finally {
+        // Completed already if read to the end
+        abandon();
+      }
+    }
+  }
+}
@@ -0,0 +1,126 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.Header;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Headers of HTTP request sorted, in a single pass, into the ones curl command handles with
+ * dedicated options (basic authentication, cookie) and the ones passed through as {@code --header}.
+ * Header names are compared case-sensitively.
+ */
+final class ClassifiedHeaders {
+
+  private static final Logger log = LoggerFactory.getLogger(Http2Curl.class);
+
+  private final List<Header> headers;
+  private String contentType;
+  private String host;
+  private int authenticationIndex = -1;
+  private String user;
+  private String password;
+  private int cookieIndex = -1;
+  private int cookieCount;
+
+  private ClassifiedHeaders(Header[] headers) {
+    this.headers = Collections.unmodifiableList(Arrays.asList(headers));
+  }
+
+  static ClassifiedHeaders classify(Header[] headers) {
+    ClassifiedHeaders classified = new ClassifiedHeaders(headers);
+    for (int i = 0; i < headers.length; i++) {
+      classified.classify(headers[i], i);
+    }
+    return classified;
+  }
+
+  private void classify(Header h, int index) {
+    switch (h.getName()) {
+      case "Content-Type":
+        if (contentType == null) {
+          contentType = h.getValue();
+        }
+        break;
+      case "Host":
+        if (host == null) {
+          host = h.getValue();
+        }
+        break;
+      case "Authorization":
+        // There can be only one authentication header
+        if (authenticationIndex < 0 && h.getValue().startsWith("Basic")) {
+          classifyBasicAuthentication(h, index);
+        }
+        break;
+      case "Cookie":
+        if (cookieCount++ == 0) {
+          cookieIndex = index;
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void classifyBasicAuthentication(Header h, int index) {
+    try {
+      String credentials = h.getValue().replace("Basic ", "");
+      String decodedCredentials = new String(Base64.getDecoder().decode(credentials));
+      String[] userAndPassword = decodedCredentials.split(":", -1);
+      user = userAndPassword[0];
+      password = userAndPassword[1];
+      authenticationIndex = index;
+    } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+      log.warn("This is not valid Basic authentication header: {}", h.getValue());
+    }
+  }
+
+  /** Returns all headers in their original order. */
+  List<Header> getAll() {
+    return headers;
+  }
+
+  /** Returns value of the first Content-Type header; {@code null} if there is none. */
+  String getContentType() {
+    return contentType;
+  }
+
+  /** Returns value of the first Host header; {@code null} if there is none. */
+  String getHost() {
+    return host;
+  }
+
+  /** Returns {@code true} if the request carries a valid basic authentication header. */
+  boolean hasBasicAuthentication() {
+    return authenticationIndex >= 0;
+  }
+
+  String getUser() {
+    return user;
+  }
+
+  String getPassword() {
+    return password;
+  }
+
+  /** Returns number of Cookie headers. */
+  int getCookieCount() {
+    return cookieCount;
+  }
+
+  /** Returns value of the Cookie header if there is exactly one; {@code null} otherwise. */
+  String getCookie() {
+    return cookieCount == 1 ? headers.get(cookieIndex).getValue() : null;
+  }
+
+  /**
+   * Returns {@code true} if header at a given position is not handled with a dedicated curl option.
+   */
+  boolean isPassthrough(int index) {
+    return index != authenticationIndex && (cookieCount != 1 || index != cookieIndex);
+  }
+}
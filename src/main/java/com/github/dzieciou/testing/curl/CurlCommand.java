@@ -31,29 +31,37 @@
 
 package com.github.dzieciou.testing.curl;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
-import java.util.stream.Collectors;
 
 /**
  * Represents curl command and provides a way to serialize it through {@link #asString(Platform,
- * boolean, boolean, boolean)} method.
+ * boolean, boolean, boolean)} method or stream it into a buffer through {@link #writeTo(Appendable,
+ * Platform, boolean, boolean, boolean)} method.
  */
 public class CurlCommand {
 
   private final List<Header> headers = new ArrayList<>();
   private final List<FormPart> formParts = new ArrayList<>();
-  private final List<String> datasBinary = new ArrayList<>();
+  private final List<DataBinary> datasBinary = new ArrayList<>();
+  private final List<Header> headersView = Collections.unmodifiableList(headers);
+  private final List<FormPart> formPartsView = Collections.unmodifiableList(formParts);
+  private final List<DataBinary> datasBinaryView = Collections.unmodifiableList(datasBinary);
   private String url;
   private Optional<String> cookieHeader = Optional.empty();
   private boolean compressed;
   private boolean verbose;
   private boolean insecure;
   private Optional<String> method = Optional.empty();
+  private String requestMethod;
   private Optional<ServerAuthentication> serverAuthentication = Optional.empty();
 
   public CurlCommand setUrl(String url) {
@@ -80,7 +88,33 @@ public class CurlCommand {
   }
 
   public CurlCommand addDataBinary(String dataBinary) {
-    datasBinary.add(dataBinary);
+    datasBinary.add(new DataBinary(dataBinary));
+    return this;
+  }
+
+  /**
+   * Adds request body as raw bytes. When curl command is serialized for POSIX platform with
+   * non-ASCII characters escaping enabled, each non-ASCII byte is escaped separately, so that curl
+   * sends exactly the same bytes. Otherwise the body is decoded with a given charset and printed as
+   * text.
+   *
+   * @param dataBinary raw bytes of request body
+   * @param charset charset to decode the body with when it cannot be printed as bytes
+   * @return this command
+   */
+  public CurlCommand addDataBinary(byte[] dataBinary, Charset charset) {
+    datasBinary.add(new DataBinary(dataBinary, charset));
+    return this;
+  }
+
+  /**
+   * Adds request body to be loaded by curl from a given file.
+   *
+   * @param fileName name of a file with request body
+   * @return this command
+   */
+  public CurlCommand addDataBinaryFromFile(String fileName) {
+    datasBinary.add(DataBinary.fromFile(fileName));
     return this;
   }
 
@@ -106,6 +140,13 @@ public class CurlCommand {
 
   public CurlCommand setMethod(String method) {
     this.method = Optional.of(method);
+    this.requestMethod = method;
+    return this;
+  }
+
+  /** Sets HTTP method of the request without printing it with {@code -X} parameter. */
+  CurlCommand setRequestMethod(String requestMethod) {
+    this.requestMethod = requestMethod;
     return this;
   }
 
@@ -124,14 +165,200 @@ public class CurlCommand {
       boolean useShortForm,
       boolean printMultiliner,
       boolean escapeNonAscii) {
-    return new Serializer(targetPlatform, useShortForm, printMultiliner, escapeNonAscii)
-        .serialize(this);
+    Serializer serializer =
+        new Serializer(targetPlatform, useShortForm, printMultiliner, escapeNonAscii);
+    StringBuilder sb = new StringBuilder(serializer.estimateSize(this));
+    try {
+      serializer.serialize(this, sb);
+    } catch (IOException e) {
+      // StringBuilder never throws IOException
+      throw new UncheckedIOException(e);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Serializes curl command directly into a given buffer, without building intermediate strings.
+   *
+   * @param out buffer to write curl command to
+   * @param targetPlatform platform on which curl command will be executed
+   * @param useShortForm whether to print short form of curl parameters
+   * @param printMultiliner whether to print each curl parameter in a separate line
+   * @param escapeNonAscii whether to escape non-ASCII characters (POSIX platforms only)
+   * @throws IOException if writing to the buffer failed
+   */
+  public void writeTo(
+      Appendable out,
+      Platform targetPlatform,
+      boolean useShortForm,
+      boolean printMultiliner,
+      boolean escapeNonAscii)
+      throws IOException {
+    new Serializer(targetPlatform, useShortForm, printMultiliner, escapeNonAscii)
+        .serialize(this, out);
+  }
+
+  /**
+   * Serializes curl command directly into a given buffer, respecting formatting {@code options}.
+   *
+   * @param out buffer to write curl command to
+   * @param options options defining curl formatting
+   * @throws IOException if writing to the buffer failed
+   */
+  public void writeTo(Appendable out, Options options) throws IOException {
+    writeTo(
+        out,
+        options.getTargetPlatform(),
+        options.useShortForm(),
+        options.printMultiliner(),
+        options.escapeNonAscii());
   }
 
   public boolean hasData() {
     return !datasBinary.isEmpty();
   }
 
+  public String getUrl() {
+    return url;
+  }
+
+  /**
+   * Returns HTTP method of the request, whether or not it is printed with {@code -X} parameter. For
+   * commands not generated from a request, returns the method curl would send: POST if there is
+   * data or a form to send, GET otherwise.
+   */
+  public String getMethod() {
+    if (requestMethod != null) {
+      return requestMethod;
+    }
+    return hasData() || !formParts.isEmpty() ? "POST" : "GET";
+  }
+
+  /** Returns read-only view of headers, excluding cookie header and server authentication. */
+  public List<Header> headers() {
+    return headersView;
+  }
+
+  /** Returns read-only view of multipart form parts. */
+  public List<FormPart> formParts() {
+    return formPartsView;
+  }
+
+  /** Returns read-only view of request body parts. */
+  public List<DataBinary> dataBinary() {
+    return datasBinaryView;
+  }
+
+  public Optional<String> getCookieHeader() {
+    return cookieHeader;
+  }
+
+  public Optional<ServerAuthentication> getServerAuthentication() {
+    return serverAuthentication;
+  }
+
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+  public boolean isVerbose() {
+    return verbose;
+  }
+
+  public boolean isInsecure() {
+    return insecure;
+  }
+
+  /**
+   * Returns 64-bit hash of the command, for telling repeated commands apart without serializing
+   * them. Order of headers and form parts does not matter. Not cryptographically secure.
+   */
+  long fingerprint() {
+    long h = Fingerprint.of(Fingerprint.OFFSET, url);
+    h = Fingerprint.of(h, getMethod());
+    h = Fingerprint.of(h, cookieHeader.orElse(""));
+    if (serverAuthentication.isPresent()) {
+      h = Fingerprint.of(h, serverAuthentication.get().getUser());
+      h = Fingerprint.of(h, serverAuthentication.get().getPassword());
+    }
+    long unordered = 0;
+    for (Header header : headers) {
+      unordered += Fingerprint.mix(Fingerprint.of(Fingerprint.of(1, header.name), header.value));
+    }
+    for (FormPart formPart : formParts) {
+      unordered +=
+          Fingerprint.mix(Fingerprint.of(Fingerprint.of(2, formPart.name), formPart.content));
+    }
+    h = Fingerprint.mix(h ^ unordered);
+    for (DataBinary data : datasBinary) {
+      h = data.bytes != null ? Fingerprint.of(h, data.bytes) : Fingerprint.of(h, data.getContent());
+    }
+    int flags = (compressed ? 1 : 0) | (verbose ? 2 : 0) | (insecure ? 4 : 0);
+    return Fingerprint.mix(h ^ flags);
+  }
+
+  /**
+   * Estimates number of bytes of heap the command retains, for keeping many commands within a
+   * memory budget. Counts two bytes per character and a fixed overhead per object.
+   */
+  long estimateRetainedSize() {
+    long size = 256 + retainedSize(url);
+    size += method.isPresent() ? retainedSize(method.get()) : 0;
+    size += cookieHeader.isPresent() ? retainedSize(cookieHeader.get()) : 0;
+    if (serverAuthentication.isPresent()) {
+      size += retainedSize(serverAuthentication.get().getUser());
+      size += retainedSize(serverAuthentication.get().getPassword());
+    }
+    for (Header header : headers) {
+      size += 16 + retainedSize(header.name) + retainedSize(header.value);
+    }
+    for (FormPart formPart : formParts) {
+      size += 16 + retainedSize(formPart.name) + retainedSize(formPart.content);
+    }
+    for (DataBinary data : datasBinary) {
+      size += 32 + (data.bytes != null ? 16 + data.bytes.length : 2L * data.length());
+    }
+    return size;
+  }
+
+  private static long retainedSize(String s) {
+    return s == null ? 0 : 40 + 2L * s.length();
+  }
+
+  /** FNV-1a hashing of strings and bytes, with a finalizer spreading the bits. */
+  private static final class Fingerprint {
+
+    static final long OFFSET = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    static long of(long h, String s) {
+      if (s == null) {
+        return (h ^ 0xfffe) * PRIME;
+      }
+      for (int i = 0; i < s.length(); i++) {
+        h = (h ^ s.charAt(i)) * PRIME;
+      }
+      // Separates adjacent strings, so that "ab" + "c" differs from "a" + "bc"
+      return (h ^ 0xffff) * PRIME;
+    }
+
+    static long of(long h, byte[] bytes) {
+      for (byte b : bytes) {
+        h = (h ^ (b & 0xff)) * PRIME;
+      }
+      return (h ^ 0xffff) * PRIME;
+    }
+
+    // Finalizer of MurmurHash3
+    static long mix(long h) {
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      return h ^ (h >>> 33);
+    }
+  }
+
   public static class Header {
 
     private final String name;
@@ -170,6 +397,63 @@ public class CurlCommand {
     }
   }
 
+  public static class DataBinary {
+
+    private final String content;
+    private final byte[] bytes;
+    private final Charset charset;
+    private final String fileName;
+
+    public DataBinary(String content) {
+      this(content, null, null, null);
+    }
+
+    public DataBinary(byte[] bytes, Charset charset) {
+      this(null, bytes, charset, null);
+    }
+
+    private DataBinary(String content, byte[] bytes, Charset charset, String fileName) {
+      this.content = content;
+      this.bytes = bytes;
+      this.charset = charset;
+      this.fileName = fileName;
+    }
+
+    public static DataBinary fromFile(String fileName) {
+      return new DataBinary(null, null, null, fileName);
+    }
+
+    /**
+     * Returns request body as text, decoding raw bytes if the body was given as bytes. For body
+     * loaded from file returns file name prefixed with "@", as understood by curl.
+     */
+    public String getContent() {
+      if (fileName != null) {
+        return "@" + fileName;
+      }
+      return content != null ? content : new String(bytes, charset);
+    }
+
+    /** Returns read-only view of raw bytes of request body, if the body was given as bytes. */
+    public Optional<ByteBuffer> getBytes() {
+      return bytes != null
+          ? Optional.of(ByteBuffer.wrap(bytes).asReadOnlyBuffer())
+          : Optional.empty();
+    }
+
+    /** Returns name of a file to load request body from, if the body is loaded from file. */
+    public Optional<String> getFileName() {
+      return Optional.ofNullable(fileName);
+    }
+
+    int length() {
+      if (fileName != null) {
+        return fileName.length() + 1;
+      }
+      return bytes != null ? bytes.length : content.length();
+    }
+  }
+
   public static class ServerAuthentication {
 
     private final String user;
@@ -192,10 +476,16 @@ public class CurlCommand {
   private static class Serializer {
 
     private static final Map<String, String> SHORT_PARAMETER_NAMES = new HashMap<>();
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    // ANSI-C Quoting of ASCII characters, null if a character does not need escaping
+    // https://www.gnu.org/software/bash/manual/html_node/ANSI_002dC-Quoting.html
+    private static final String[] POSIX_ASCII_ESCAPES = new String[128];
     private final Platform targetPlatform;
     private final boolean useShortForm;
     private final boolean printMultiliner;
     private final boolean escapeNonAscii;
+    private final String parameterSeparator;
+    private final char quote;
 
     static {
       SHORT_PARAMETER_NAMES.put("--user", "-u");
@@ -206,6 +496,17 @@ public class CurlCommand {
       SHORT_PARAMETER_NAMES.put("--header", "-H");
       SHORT_PARAMETER_NAMES.put("--request", "-X");
       SHORT_PARAMETER_NAMES.put("--verbose", "-v");
+
+      for (char c = 0; c < POSIX_ASCII_ESCAPES.length; c++) {
+        POSIX_ASCII_ESCAPES[c] = isAsciiPrintable(c) ? null : escapeAsHex(c);
+      }
+      POSIX_ASCII_ESCAPES['\n'] = "\\n";
+      POSIX_ASCII_ESCAPES['\''] = "\\'";
+      POSIX_ASCII_ESCAPES['\t'] = "\\t";
+      POSIX_ASCII_ESCAPES['\r'] = "\\r";
+      // '@' character has a special meaning in --data-binary (loading a file)
+      // So we need to escape it
+      POSIX_ASCII_ESCAPES['@'] = escapeAsHex('@');
     }
 
     public Serializer(
@@ -217,6 +518,9 @@ public class CurlCommand {
       this.useShortForm = useShortForm;
       this.printMultiliner = printMultiliner;
       this.escapeNonAscii = escapeNonAscii;
+      this.parameterSeparator = chooseJoiningString(printMultiliner);
+      // cURL command is expected to run on the same platform that test run
+      this.quote = targetPlatform.isOsWindows() ? '"' : '\'';
     }
 
     private static String parameterName(String longParameterName, boolean useShortForm) {
@@ -227,13 +531,6 @@ public class CurlCommand {
           : longParameterName;
     }
 
-    private static List<String> line(
-        boolean useShortForm, String longParameterName, String... arguments) {
-      List<String> line = new ArrayList<>(Arrays.asList(arguments));
-      line.add(0, parameterName(longParameterName, useShortForm));
-      return line;
-    }
-
     /**
      * Replace quote by double quote (but not by \") because it is recognized by both cmd.exe and MS
      * Crt arguments parser.
@@ -242,63 +539,115 @@ public class CurlCommand {
      * becomes "%""%". Even if an env variable "" (2 doublequotes) is declared, the cmd.exe will not
      * substitute it with its value.
      *
-     * <p>Replace each backslash with double backslash to make sure MS Crt arguments parser won't
-     * collapse them.
+     * <p>Replace each run of new line characters outside of quotes since cmd.exe doesn't let to do
+     * it inside.
      *
-     * <p>Replace new line outside of quotes since cmd.exe doesn't let to do it inside.
+     * <p>Backslashes are left as they are.
      */
-    private static String escapeStringWin(String s) {
+    private static void writeEscapedStringWin(Appendable out, String s) throws IOException {
       // Escaping non-printable ASCII characters is limited only to few characters
       // Escaping non-ASCII characters is not supported
-      return "\""
-          + s.replaceAll("\"", "\"\"")
-              .replaceAll("%", "\"%\"")
-              .replaceAll("\\\\", "\\\\")
-              .replaceAll("[\r\n]+", "\"^\r\n$0\"")
-          + "\"";
+      out.append('"');
+      int length = s.length();
+      int unescapedFrom = 0;
+      int i = 0;
+      while (i < length) {
+        char c = s.charAt(i);
+        if (c == '"') {
+          out.append(s, unescapedFrom, i).append("\"\"");
+          unescapedFrom = ++i;
+        } else if (c == '%') {
+          out.append(s, unescapedFrom, i).append("\"%\"");
+          unescapedFrom = ++i;
+        } else if (isNewLine(c)) {
+          int newLinesEnd = i + 1;
+          while (newLinesEnd < length && isNewLine(s.charAt(newLinesEnd))) {
+            newLinesEnd++;
+          }
+          out.append(s, unescapedFrom, i).append("\"^\r\n").append(s, i, newLinesEnd).append('"');
+          unescapedFrom = i = newLinesEnd;
+        } else {
+          i++;
+        }
+      }
+      out.append(s, unescapedFrom, length).append('"');
     }
 
-    private String escapeStringPosix(String s) {
+    private static boolean isNewLine(char c) {
+      return c == '\r' || c == '\n';
+    }
 
-      String escaped = s.chars().mapToObj(c -> escape((char) c)).collect(Collectors.joining());
+    private void writeEscapedStringPosix(Appendable out, String s) throws IOException {
+      int length = s.length();
+      int i = 0;
+      while (i < length && !needsEscapingPosix(s.charAt(i))) {
+        i++;
+      }
+      if (i == length) {
+        // Nothing to escape, so no need for ANSI-C Quoting
+        out.append('\'').append(s).append('\'');
+        return;
+      }
 
-      if (!escaped.equals(s)) {
-        // ANSI-C Quoting performed
-        return "$'" + escaped + "'";
-      } else {
-        return "'" + escaped + "'";
+      out.append("$'");
+      int unescapedFrom = 0;
+      for (; i < length; i++) {
+        char c = s.charAt(i);
+        if (needsEscapingPosix(c)) {
+          out.append(s, unescapedFrom, i);
+          if (c < POSIX_ASCII_ESCAPES.length) {
+            out.append(POSIX_ASCII_ESCAPES[c]);
+          } else {
+            // Perform ANSI-C Quoting for non-ASCII characters
+            writeAsHex(out, c);
+          }
+          unescapedFrom = i + 1;
+        }
       }
+      out.append(s, unescapedFrom, length).append('\'');
     }
 
-    private String escape(char c) {
-      if (isAscii(c)) {
-        // Perform ANSI-C Quoting for ASCII characters
-        // https://www.gnu.org/software/bash/manual/html_node/ANSI_002dC-Quoting.html
-        switch (c) {
-          case '\n':
-            return "\\n";
-          case '\'':
-            return "\\'";
-          case '\t':
-            return "\\t";
-          case '\r':
-            return "\\r";
-            // '@' character has a special meaning in --data-binary (loading a file)
-            // So we need to escape it
-          case '@':
-            return escapeAsHex(c);
-          default:
-            return isAsciiPrintable(c) ? String.valueOf(c) : escapeAsHex(c);
+    private static void writeEscapedBytesPosix(Appendable out, byte[] bytes) throws IOException {
+      int i = 0;
+      while (i < bytes.length && !needsEscapingPosix(bytes[i])) {
+        i++;
+      }
+      if (i == bytes.length) {
+        // Nothing to escape, so no need for ANSI-C Quoting
+        writeAscii(out.append('\''), bytes, bytes.length).append('\'');
+        return;
+      }
+
+      writeAscii(out.append("$'"), bytes, i);
+      for (; i < bytes.length; i++) {
+        byte b = bytes[i];
+        if (!needsEscapingPosix(b)) {
+          out.append((char) b);
+        } else if (b >= 0) {
+          out.append(POSIX_ASCII_ESCAPES[b]);
+        } else {
+          // Escape each byte of non-ASCII character separately
+          writeAsHex(out, (char) (b & 0xff));
         }
-      } else {
-        // Perform ANSI-C Quoting for non-ASCII characters
-        // https://www.gnu.org/software/bash/manual/html_node/ANSI_002dC-Quoting.html
-        return this.escapeNonAscii ? escapeAsHex(c) : String.valueOf(c);
       }
+      out.append('\'');
+    }
+
+    private static Appendable writeAscii(Appendable out, byte[] bytes, int length)
+        throws IOException {
+      for (int i = 0; i < length; i++) {
+        out.append((char) bytes[i]);
+      }
+      return out;
     }
 
-    private static boolean isAscii(char c) {
-      return c <= 127;
+    private static boolean needsEscapingPosix(byte b) {
+      // Negative bytes are not ASCII
+      return b < 0 || POSIX_ASCII_ESCAPES[b] != null;
+    }
+
+    private boolean needsEscapingPosix(char c) {
+      return c < POSIX_ASCII_ESCAPES.length ? POSIX_ASCII_ESCAPES[c] != null : escapeNonAscii;
     }
 
     private static boolean isAsciiPrintable(char c) {
@@ -306,87 +655,146 @@ public class CurlCommand {
     }
 
     private static String escapeAsHex(char c) {
-      int code = c;
-      if (code < 256) {
-        return String.format("\\x%02x", (int) c);
+      StringBuilder sb = new StringBuilder(6);
+      try {
+        writeAsHex(sb, c);
+      } catch (IOException e) {
+        // StringBuilder never throws IOException
+        throw new UncheckedIOException(e);
+      }
+      return sb.toString();
+    }
+
+    private static void writeAsHex(Appendable out, char c) throws IOException {
+      if (c < 256) {
+        out.append("\\x").append(HEX_DIGITS[c >> 4]).append(HEX_DIGITS[c & 0xf]);
+      } else {
+        out.append("\\u")
+            .append(HEX_DIGITS[c >> 12])
+            .append(HEX_DIGITS[(c >> 8) & 0xf])
+            .append(HEX_DIGITS[(c >> 4) & 0xf])
+            .append(HEX_DIGITS[c & 0xf]);
+      }
+    }
+
+    /** Estimates length of serialized command, so that the buffer does not need to grow. */
+    public int estimateSize(CurlCommand curl) {
+      // Room for parameter names, separators and quoting of each argument
+      int perParameter = 16 + parameterSeparator.length();
+      int size = perParameter + length(curl.url);
+      size += curl.method.isPresent() ? perParameter : 0;
+      size += curl.cookieHeader.map(c -> perParameter + c.length()).orElse(0);
+      for (Header header : curl.headers) {
+        size += perParameter + length(header.name) + length(header.value);
       }
-      return String.format("\\u%04x", (int) c);
+      for (FormPart formPart : curl.formParts) {
+        size += perParameter + length(formPart.name) + length(formPart.content);
+      }
+      for (DataBinary data : curl.datasBinary) {
+        // Leave some room for escaped characters
+        size += perParameter + data.length() + (data.length() >> 3);
+      }
+      size += curl.serverAuthentication.isPresent() ? 2 * perParameter : 0;
+      return size + 3 * perParameter;
     }
 
-    public String serialize(CurlCommand curl) {
-      List<List<String>> command = new ArrayList<>();
+    private static int length(String s) {
+      // null is appended as "null"
+      return s == null ? 4 : s.length();
+    }
 
-      command.add(
-          line(useShortForm, "curl", quoteString(curl.url).replaceAll("[[{}\\\\]]", "\\$&")));
+    public void serialize(CurlCommand curl, Appendable out) throws IOException {
 
-      curl.method.ifPresent(method -> command.add(line(useShortForm, "--request", method)));
+      writeUrl(out.append(parameterName("curl", useShortForm)).append(' '), curl.url);
 
-      curl.cookieHeader.ifPresent(
-          cookieHeader -> command.add(line(useShortForm, "--cookie", quoteString(cookieHeader))));
+      if (curl.method.isPresent()) {
+        parameter(out, "--request").append(' ').append(curl.method.get());
+      }
 
-      curl.headers.forEach(
-          header ->
-              command.add(
-                  line(
-                      useShortForm,
-                      "--header",
-                      quoteString(header.getName() + ": " + header.getValue()))));
+      if (curl.cookieHeader.isPresent()) {
+        quoted(parameter(out, "--cookie").append(' '), curl.cookieHeader.get());
+      }
 
-      curl.formParts.forEach(
-          formPart ->
-              command.add(
-                  line(
-                      useShortForm,
-                      "--form",
-                      quoteString(formPart.getName() + "=" + formPart.getContent()))));
+      for (Header header : curl.headers) {
+        quoted(parameter(out, "--header").append(' '), header.getName(), ": ", header.getValue());
+      }
+
+      for (FormPart formPart : curl.formParts) {
+        quoted(
+            parameter(out, "--form").append(' '), formPart.getName(), "=", formPart.getContent());
+      }
 
-      curl.datasBinary.forEach(
-          data -> command.add(line(useShortForm, "--data-binary", escapeString(data))));
+      for (DataBinary data : curl.datasBinary) {
+        parameter(out, "--data-binary").append(' ');
+        if (data.fileName != null) {
+          // '@' must not be escaped, so that curl loads the file
+          quoted(out, data.getContent());
+        } else if (data.bytes != null && !targetPlatform.isOsWindows() && escapeNonAscii) {
+          writeEscapedBytesPosix(out, data.bytes);
+        } else {
+          writeEscapedString(out, data.getContent());
+        }
+      }
 
-      curl.serverAuthentication.ifPresent(
-          sa ->
-              command.add(
-                  line(
-                      useShortForm, "--user", quoteString(sa.getUser() + ":" + sa.getPassword()))));
+      if (curl.serverAuthentication.isPresent()) {
+        ServerAuthentication sa = curl.serverAuthentication.get();
+        quoted(parameter(out, "--user").append(' '), sa.getUser(), ":", sa.getPassword());
+      }
 
       if (curl.compressed) {
-        command.add(line(useShortForm, "--compressed"));
+        parameter(out, "--compressed");
       }
       if (curl.insecure) {
-        command.add(line(useShortForm, "--insecure"));
+        parameter(out, "--insecure");
       }
       if (curl.verbose) {
-        command.add(line(useShortForm, "--verbose"));
+        parameter(out, "--verbose");
       }
+    }
 
-      return command.stream()
-          .map(line -> line.stream().collect(Collectors.joining(" ")))
-          .collect(Collectors.joining(chooseJoiningString(printMultiliner)));
+    private void writeUrl(Appendable out, String url) throws IOException {
+      String s = String.valueOf(url);
+      out.append(quote);
+      int unescapedFrom = 0;
+      for (int i = 0; i < s.length(); i++) {
+        char c = s.charAt(i);
+        // Keeps output of former replaceAll("[[{}\\\\]]", "\\$&"): the character class matched
+        // only '{', '}' and '\\', and the replacement was a literal "$&"
+        if (c == '{' || c == '}' || c == '\\') {
+          out.append(s, unescapedFrom, i).append("$&");
+          unescapedFrom = i + 1;
+        }
+      }
+      out.append(s, unescapedFrom, s.length()).append(quote);
     }
 
-    private CharSequence chooseJoiningString(boolean printMultiliner) {
-      String commandLineSeparator = targetPlatform.isOsWindows() ? "^" : "\\";
-      return printMultiliner
-          ? String.format(" %s%s  ", commandLineSeparator, targetPlatform.lineSeparator())
-          : " ";
+    private Appendable parameter(Appendable out, String longParameterName) throws IOException {
+      return out.append(parameterSeparator).append(parameterName(longParameterName, useShortForm));
     }
 
-    private String escapeString(String s) {
-      // cURL command is expected to run on the same platform that test run
-      return targetPlatform.isOsWindows() ? escapeStringWin(s) : escapeStringPosix(s);
+    private void quoted(Appendable out, String value) throws IOException {
+      out.append(quote).append(value).append(quote);
     }
 
-    private String quoteString(String s) {
-      // cURL command is expected to run on the same platform that test run
-      return targetPlatform.isOsWindows() ? quoteStringWin(s) : quoteStringPosix(s);
+    private void quoted(Appendable out, String first, String separator, String second)
+        throws IOException {
+      out.append(quote).append(first).append(separator).append(second).append(quote);
     }
 
-    private static String quoteStringWin(String s) {
-      return "\"" + s + "\"";
+    private String chooseJoiningString(boolean printMultiliner) {
+      String commandLineSeparator = targetPlatform.isOsWindows() ? "^" : "\\";
+      return printMultiliner
+          ? String.format(" %s%s  ", commandLineSeparator, targetPlatform.lineSeparator())
+          : " ";
     }
 
-    private static String quoteStringPosix(String s) {
-      return "'" + s + "'";
+    private void writeEscapedString(Appendable out, String s) throws IOException {
+      // cURL command is expected to run on the same platform that test run
+      if (targetPlatform.isOsWindows()) {
+        writeEscapedStringWin(out, s);
+      } else {
+        writeEscapedStringPosix(out, s);
+      }
     }
   }
 }
@@ -0,0 +1,31 @@
+package com.github.dzieciou.testing.curl;
+
+/**
+ * Handler of generated curl commands that works on the command object rather than its text, e.g.,
+ * to route or filter requests by URL or method. Curl expression is never serialized for it.
+ */
+@FunctionalInterface
+public interface CurlCommandHandler extends CurlHandler {
+
+  /**
+   * Handle generated curl command. The command is shared by all handlers and should not be
+   * modified.
+   *
+   * @param command curl command to handle.
+   * @param options options used to generate curl.
+   */
+  void handle(CurlCommand command, Options options);
+
+  @Override
+  default void handle(GeneratedCurl curl, Options options) {
+    handle(curl.getCommand(), options);
+  }
+
+  /** Ignores summaries of suppressed commands, as they are not curl commands. */
+  @Override
+  default void handleSummary(String summary, Options options) {}
+
+  /** Ignores curl expressions, e.g., replayed from text, as curl command cannot be recovered. */
+  @Override
+  default void handle(String curl, Options options) {}
+}
@@ -0,0 +1,521 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handler storing curl commands in an append-only file, together with an index that allows finding
+ * them by time, HTTP method and path prefix without reading the whole file.
+ *
+ * <p>Store at {@code target/curl} consists of two files. Data file {@code target/curl.data} holds
+ * records with time the request has been sent, HTTP method, host, path, status code if known (see
+ * {@link GeneratedCurl#getExchange()}), name of the thread that sent it and serialized curl
+ * command. Time and thread are taken when the request is sent, also when processing asynchronously.
+ * Index file {@code target/curl.idx} holds a fixed-size entry per record, in order of time: time,
+ * position of the record, method and the first bytes of path. Queries binary search the index by
+ * time through a memory-mapped buffer, filter entries by method and path, and read only matching
+ * records.
+ *
+ * <p>Commands are written on the thread handling them; use {@link
+ * Options.Builder#processAsynchronously()} to keep writing off threads sending requests. The store
+ * is thread-safe. A store can be reopened to query commands stored by an earlier run.
+ */
+public final class CurlCommandStore implements CurlHandler, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(CurlCommandStore.class);
+
+  static final int ENTRY_SIZE = 32;
+  private static final int PATH_PREFIX_LENGTH = 8;
+  // Multiple of entry size, so that no entry spans two mapped chunks
+  private static final long CHUNK_SIZE = 1L << 30;
+  private static final String[] METHODS = {
+    null, "GET", "POST", "PUT", "DELETE", "PATCH", "HEAD", "OPTIONS"
+  };
+
+  private final Path dataFile;
+  private final Path indexFile;
+  private final FileChannel data;
+  private final FileChannel index;
+  private final LongSupplier clock;
+  private final ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+  private long dataSize;
+  private volatile long indexSize;
+  private long lastTimestamp = Long.MIN_VALUE;
+
+  private CurlCommandStore(Path base, LongSupplier clock) throws IOException {
+    Path absolute = base.toAbsolutePath();
+    this.dataFile = absolute.resolveSibling(absolute.getFileName() + ".data");
+    this.indexFile = absolute.resolveSibling(absolute.getFileName() + ".idx");
+    this.clock = clock;
+    Files.createDirectories(absolute.getParent());
+    this.data = openChannel(dataFile);
+    this.index = openChannel(indexFile);
+    this.dataSize = data.size();
+    // Entry partially written by a process that has been killed is ignored and overwritten
+    this.indexSize = index.size() - index.size() % ENTRY_SIZE;
+    if (indexSize > 0) {
+      ByteBuffer last = ByteBuffer.allocate(8);
+      readFully(index, last, indexSize - ENTRY_SIZE);
+      lastTimestamp = last.getLong(0);
+    }
+  }
+
+  /**
+   * Opens store at a given location, creating it if it does not exist.
+   *
+   * @param base location of the store; data and index files are named after it
+   * @return store
+   * @throws IOException if the store cannot be opened
+   */
+  public static CurlCommandStore open(Path base) throws IOException {
+    return new CurlCommandStore(base, System::currentTimeMillis);
+  }
+
+  static CurlCommandStore open(Path base, LongSupplier clock) throws IOException {
+    return new CurlCommandStore(base, clock);
+  }
+
+  @Override
+  public void handle(GeneratedCurl curl, Options options) {
+    CurlCommand command = curl.getCommand();
+    String url = command.getUrl() != null ? command.getUrl() : "";
+    String host = SamplingPolicy.hostOf(url);
+    int status = curl.getExchange().map(exchange -> exchange.getStatusCode().orElse(-1)).orElse(-1);
+    store(
+        curl.getTimestampMillis(),
+        command.getMethod(),
+        host,
+        pathOf(url, host),
+        status,
+        curl.getThreadName(),
+        curl.getMessage());
+  }
+
+  /**
+   * Stores curl expression without method and path, so that it is found only by time it has been
+   * handled.
+   */
+  @Override
+  public void handle(String curl, Options options) {
+    store(clock.getAsLong(), "", "", "", -1, Thread.currentThread().getName(), curl);
+  }
+
+  /** Ignores summaries of suppressed commands, as they are not curl commands. */
+  @Override
+  public void handleSummary(String summary, Options options) {}
+
+  /**
+   * Returns a new query of stored commands, matching all of them until narrowed down.
+   *
+   * @return query
+   */
+  public Query query() {
+    return new Query();
+  }
+
+  /** Forces stored commands to the storage device and closes the store. */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      data.force(false);
+      index.force(false);
+    } finally {
+      data.close();
+      index.close();
+    }
+  }
+
+  private static FileChannel openChannel(Path file) throws IOException {
+    return FileChannel.open(
+        file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private static String pathOf(String url, String host) {
+    int scheme = url.indexOf("://");
+    int start = scheme < 0 ? 0 : scheme + 3 + host.length();
+    int end = url.indexOf('?', start);
+    String path = url.substring(start, end < 0 ? url.length() : end);
+    return path.isEmpty() ? "/" : path;
+  }
+
+  private void store(
+      long timestamp,
+      String method,
+      String host,
+      String path,
+      int status,
+      String thread,
+      String curl) {
+    try {
+      byte[] record = encode(method, host, path, status, thread, curl);
+      append(timestamp, method, path, status, record);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to store curl command in {}", dataFile, e);
+    }
+  }
+
+  private synchronized void append(
+      long timestamp, String method, String path, int status, byte[] record) throws IOException {
+    // Index must stay ordered by time, even if clock goes back
+    timestamp = Math.max(timestamp, lastTimestamp);
+    ByteBuffer withTimestamp = ByteBuffer.allocate(8 + record.length);
+    withTimestamp.putLong(timestamp).put(record).flip();
+    writeFully(data, withTimestamp, dataSize);
+
+    byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+    int prefixLength = Math.min(pathBytes.length, PATH_PREFIX_LENGTH);
+    entry.clear();
+    entry
+        .putLong(timestamp)
+        .putLong(dataSize)
+        .putInt(8 + record.length)
+        .putShort((short) status)
+        .put(methodCode(method))
+        .put((byte) prefixLength)
+        .put(pathBytes, 0, prefixLength);
+    entry.position(ENTRY_SIZE).flip();
+    writeFully(index, entry, indexSize);
+
+    dataSize += 8 + record.length;
+    lastTimestamp = timestamp;
+    // Makes the record visible to queries only when both files are written
+    indexSize += ENTRY_SIZE;
+  }
+
+  private static byte[] encode(
+      String method, String host, String path, int status, String thread, String curl)
+      throws IOException {
+    byte[] curlBytes = curl.getBytes(StandardCharsets.UTF_8);
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(curlBytes.length + 128);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeShort(status);
+    writeString(out, method);
+    writeString(out, host);
+    writeString(out, path);
+    writeString(out, thread);
+    out.writeInt(curlBytes.length);
+    out.write(curlBytes);
+    return bytes.toByteArray();
+  }
+
+  // Unlike writeUTF, not limited to 64 KB, as URL path may be longer
+  private static void writeString(DataOutputStream out, String s) throws IOException {
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  private static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static byte methodCode(String method) {
+    for (int i = 1; i < METHODS.length; i++) {
+      if (METHODS[i].equals(method)) {
+        return (byte) i;
+      }
+    }
+    return 0;
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new EOFException("Unexpected end of curl command store");
+      }
+      position += read;
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Query of stored commands. Conditions are combined with AND; commands are returned oldest first.
+   */
+  public final class Query {
+
+    private String method;
+    private String pathPrefix;
+    private long fromMillis = Long.MIN_VALUE;
+    private long toMillis = Long.MAX_VALUE;
+    private int limit = Integer.MAX_VALUE;
+
+    private Query() {}
+
+    /** Matches commands with a given HTTP method, e.g., "POST". */
+    public Query method(String method) {
+      this.method = method;
+      return this;
+    }
+
+    /** Matches commands whose URL path, without query, starts with a given prefix. */
+    public Query pathPrefix(String pathPrefix) {
+      this.pathPrefix = pathPrefix;
+      return this;
+    }
+
+    /** Matches commands of requests sent at or after a given time. */
+    public Query from(Instant from) {
+      this.fromMillis = from.toEpochMilli();
+      return this;
+    }
+
+    /** Matches commands of requests sent before a given time. */
+    public Query to(Instant to) {
+      this.toMillis = to.toEpochMilli();
+      return this;
+    }
+
+    /** Limits number of commands returned. Unlimited by default. */
+    public Query limit(int limit) {
+      if (limit < 1) {
+        throw new IllegalArgumentException("Limit must be positive: " + limit);
+      }
+      this.limit = limit;
+      return this;
+    }
+
+    /**
+     * Returns stored commands matching the query, oldest first.
+     *
+     * @return matching commands
+     * @throws UncheckedIOException if the store cannot be read
+     */
+    public List<StoredCurl> list() {
+      try {
+        return new IndexView(indexSize).find(this);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private boolean matches(IndexView view, long entry) {
+      if (method != null) {
+        byte code = view.methodCode(entry);
+        if (code != 0 && !METHODS[code].equals(method)) {
+          return false;
+        }
+      }
+      if (pathPrefix != null) {
+        byte[] prefix = pathPrefix.getBytes(StandardCharsets.UTF_8);
+        int stored = view.pathPrefixLength(entry);
+        int compared = Math.min(prefix.length, PATH_PREFIX_LENGTH);
+        if (stored < compared) {
+          return false;
+        }
+        byte[] indexed = view.pathPrefix(entry);
+        if (!Arrays.equals(Arrays.copyOf(indexed, compared), Arrays.copyOf(prefix, compared))) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    // Index holds only a prefix of path and known methods, so the record has the final word
+    private boolean matches(StoredCurl curl) {
+      return (method == null || method.equals(curl.method))
+          && (pathPrefix == null || curl.path.startsWith(pathPrefix))
+          && curl.timestampMillis >= fromMillis
+          && curl.timestampMillis < toMillis;
+    }
+  }
+
+  /** Memory-mapped view of index entries written so far. */
+  private final class IndexView {
+
+    private final long entries;
+    private final MappedByteBuffer[] chunks;
+
+    IndexView(long indexSize) throws IOException {
+      this.entries = indexSize / ENTRY_SIZE;
+      this.chunks = new MappedByteBuffer[(int) ((indexSize + CHUNK_SIZE - 1) / CHUNK_SIZE)];
+      for (int i = 0; i < chunks.length; i++) {
+        long position = i * CHUNK_SIZE;
+        chunks[i] =
+            index.map(
+                FileChannel.MapMode.READ_ONLY,
+                position,
+                Math.min(CHUNK_SIZE, indexSize - position));
+      }
+    }
+
+    List<StoredCurl> find(Query query) throws IOException {
+      List<StoredCurl> result = new ArrayList<>();
+      for (long entry = firstAtOrAfter(query.fromMillis);
+          entry < entries && timestamp(entry) < query.toMillis && result.size() < query.limit;
+          entry++) {
+        if (query.matches(this, entry)) {
+          StoredCurl curl = read(entry);
+          if (query.matches(curl)) {
+            result.add(curl);
+          }
+        }
+      }
+      return result;
+    }
+
+    private long firstAtOrAfter(long timestamp) {
+      long low = 0;
+      long high = entries;
+      while (low < high) {
+        long middle = (low + high) >>> 1;
+        if (timestamp(middle) < timestamp) {
+          low = middle + 1;
+        } else {
+          high = middle;
+        }
+      }
+      return low;
+    }
+
+    private ByteBuffer chunk(long entry) {
+      return chunks[(int) (entry * ENTRY_SIZE / CHUNK_SIZE)];
+    }
+
+    private int offset(long entry) {
+      return (int) (entry * ENTRY_SIZE % CHUNK_SIZE);
+    }
+
+    long timestamp(long entry) {
+      return chunk(entry).getLong(offset(entry));
+    }
+
+    byte methodCode(long entry) {
+      return chunk(entry).get(offset(entry) + 22);
+    }
+
+    int pathPrefixLength(long entry) {
+      return chunk(entry).get(offset(entry) + 23);
+    }
+
+    byte[] pathPrefix(long entry) {
+      byte[] prefix = new byte[pathPrefixLength(entry)];
+      ByteBuffer chunk = chunk(entry);
+      int start = offset(entry) + 24;
+      for (int i = 0; i < prefix.length; i++) {
+        prefix[i] = chunk.get(start + i);
+      }
+      return prefix;
+    }
+
+    StoredCurl read(long entry) throws IOException {
+      ByteBuffer chunk = chunk(entry);
+      int offset = offset(entry);
+      ByteBuffer record = ByteBuffer.allocate(chunk.getInt(offset + 16));
+      readFully(data, record, chunk.getLong(offset + 8));
+      DataInputStream in =
+          new DataInputStream(
+              new ByteArrayInputStream(record.array(), record.arrayOffset(), record.limit()));
+      long timestamp = in.readLong();
+      int status = in.readShort();
+      String method = readString(in);
+      String host = readString(in);
+      String path = readString(in);
+      String thread = readString(in);
+      byte[] curl = new byte[in.readInt()];
+      in.readFully(curl);
+      return new StoredCurl(
+          timestamp, method, host, path, status, thread, new String(curl, StandardCharsets.UTF_8));
+    }
+  }
+
+  /** Curl command read from the store. */
+  public static final class StoredCurl {
+
+    private final long timestampMillis;
+    private final String method;
+    private final String host;
+    private final String path;
+    private final int statusCode;
+    private final String thread;
+    private final String curl;
+
+    StoredCurl(
+        long timestampMillis,
+        String method,
+        String host,
+        String path,
+        int statusCode,
+        String thread,
+        String curl) {
+      this.timestampMillis = timestampMillis;
+      this.method = method;
+      this.host = host;
+      this.path = path;
+      this.statusCode = statusCode;
+      this.thread = thread;
+      this.curl = curl;
+    }
+
+    /** Returns time the request has been sent. */
+    public Instant getTimestamp() {
+      return Instant.ofEpochMilli(timestampMillis);
+    }
+
+    /** Returns HTTP method, or empty string if unknown. */
+    public String getMethod() {
+      return method;
+    }
+
+    /** Returns host, with port if present. */
+    public String getHost() {
+      return host;
+    }
+
+    /** Returns URL path, without query. */
+    public String getPath() {
+      return path;
+    }
+
+    /** Returns status code of the response, if known. */
+    public OptionalInt getStatusCode() {
+      return statusCode >= 0 ? OptionalInt.of(statusCode) : OptionalInt.empty();
+    }
+
+    /** Returns name of the thread that has sent the request. */
+    public String getThread() {
+      return thread;
+    }
+
+    /** Returns serialized curl command. */
+    public String getCurl() {
+      return curl;
+    }
+
+    @Override
+    public String toString() {
+      return curl;
+    }
+  }
+}
@@ -0,0 +1,534 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Handler appending curl commands to a dedicated file, bypassing logging framework.
+ *
+ * <p>Commands are queued and written by a single background thread in batches: the thread waits for
+ * the first command, then for at most a linger time for more commands to fill the batch, and writes
+ * the whole batch with a single write through a direct buffer. Commands are serialized on the
+ * writer thread, too. Depending on {@link FsyncPolicy}, the file is forced to the storage device
+ * after each batch, on close or never.
+ *
+ * <p>Commands are written in UTF-8, each followed by a line separator. Commands still queued are
+ * written when the writer is closed or JVM shuts down.
+ *
+ * <p>The file may be rolled over once it reaches a given size or age: it is then renamed and a new
+ * one is started. Rolled segments are compressed with gzip on another background thread, and the
+ * oldest ones are deleted once they take more than a given disk space.
+ *
+ * <p>When many processes, e.g., forked test JVMs, log to the same file, each of them may write to
+ * its own segment instead, see {@link Builder#segmentPerProcess()}. Segments are merged into a
+ * single file, ordered by time, with {@link #mergeProcessSegments(Path)}.
+ */
+public final class CurlFileWriter implements CurlHandler, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger(CurlFileWriter.class);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final Object CLOSE = new Object();
+  static final long CLOSE_TIMEOUT_SECONDS = 5;
+  private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+  private static final byte[] RECORD_END = {'\n'};
+
+  private final Path file;
+  private FileChannel channel;
+  private final BlockingQueue<Object> queue;
+  private final int batchSize;
+  private final long lingerNanos;
+  private final FsyncPolicy fsyncPolicy;
+  private final OverflowPolicy overflowPolicy;
+  private final long maxSegmentBytes;
+  private final long maxSegmentAgeNanos;
+  private final boolean compressRolledSegments;
+  private final SegmentArchiver archiver;
+  private final boolean framed;
+  private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+  // Replaces what cannot be encoded, as getBytes does, instead of failing the whole batch
+  private final CharsetEncoder encoder =
+      StandardCharsets.UTF_8
+          .newEncoder()
+          .onMalformedInput(CodingErrorAction.REPLACE)
+          .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  private final String lineSeparator = System.lineSeparator();
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+  private final Thread shutdownHook;
+  private long segmentBytes;
+  private long rollOverBytes;
+  private long segmentStartNanos;
+  private long lastTimestampMillis;
+  private volatile boolean closed;
+
+  private CurlFileWriter(Builder builder) throws IOException {
+    this.framed = builder.segmentPerProcess;
+    this.file = framed ? ProcessSegments.segmentOfCurrentProcess(builder.file) : builder.file;
+    this.batchSize = builder.batchSize;
+    this.lingerNanos = builder.lingerTime.toNanos();
+    this.fsyncPolicy = builder.fsyncPolicy;
+    this.overflowPolicy = builder.overflowPolicy;
+    this.queue = new ArrayBlockingQueue<>(builder.queueCapacity);
+    this.maxSegmentBytes = builder.maxSegmentBytes;
+    this.rollOverBytes = maxSegmentBytes;
+    this.maxSegmentAgeNanos = builder.maxSegmentAge != null ? builder.maxSegmentAge.toNanos() : -1;
+    this.compressRolledSegments = builder.compressRolledSegments;
+    this.archiver =
+        maxSegmentBytes != Long.MAX_VALUE || maxSegmentAgeNanos >= 0
+            ? new SegmentArchiver(file, compressRolledSegments, builder.maxArchiveBytes)
+            : null;
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    openSegment();
+    this.writer =
+        new Thread(this::writeBatches, "curl-file-writer-" + THREAD_COUNTER.incrementAndGet());
+    writer.setDaemon(true);
+    writer.start();
+    this.shutdownHook = new Thread(this::close, "curl-file-writer-shutdown");
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+  }
+
+  /**
+   * Returns builder of a writer appending curl commands to a given file.
+   *
+   * @param file file to append curl commands to; created if it does not exist
+   * @return builder
+   */
+  public static Builder builder(Path file) {
+    return new Builder(file);
+  }
+
+  /**
+   * Merges segments of a given file written by many processes with {@link
+   * Builder#segmentPerProcess()}. Commands are ordered by time they have been written, and appended
+   * to the file as plain text. Merged segments are deleted. Call it once all processes have closed
+   * their writers, e.g., after all test JVMs have finished.
+   *
+   * @param file file passed to {@link #builder(Path)} by the processes
+   * @return number of commands merged
+   * @throws IOException if a segment cannot be read or the file cannot be written
+   */
+  public static long mergeProcessSegments(Path file) throws IOException {
+    return ProcessSegments.merge(file);
+  }
+
+  /** Queues curl command to be serialized and written by the writer thread. */
+  @Override
+  public void handle(GeneratedCurl curl, Options options) {
+    enqueue(curl);
+  }
+
+  @Override
+  public void handle(String curl, Options options) {
+    enqueue(curl);
+  }
+
+  /**
+   * Returns file the commands are written to. For a segment per process, this is the segment of the
+   * current process.
+   *
+   * @return file the commands are written to
+   */
+  public Path getFile() {
+    return file;
+  }
+
+  /**
+   * Returns number of commands that have not been written because the queue was full, or because
+   * they have been handled after closing.
+   *
+   * @return number of dropped commands
+   */
+  public long getDroppedCount() {
+    return dropped.get();
+  }
+
+  /**
+   * Writes all commands still queued, forces them to the storage device unless {@link
+   * FsyncPolicy#NEVER}, and closes the file. When rolling over with compression, the file is rolled
+   * over, too, and all segments are compressed before returning. Commands handled afterwards are
+   * dropped. If the queue stays full for a few seconds, the writer thread is interrupted; if it
+   * still does not finish, the file is left open rather than closing blocked forever.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    try {
+      if (!queue.offer(CLOSE, CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        // Writer is stuck or gone; once interrupted, it writes what is queued and stops
+        writer.interrupt();
+      }
+      writer.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT_SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (writer.isAlive()) {
+      log.warn("Writer of curl commands has not finished in time, file left open: {}", file);
+    } else {
+      closeFile();
+    }
+    try {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    } catch (IllegalStateException e) {
+      // JVM is already shutting down
+    }
+  }
+
+  private void closeFile() {
+    try {
+      if (fsyncPolicy != FsyncPolicy.NEVER) {
+        channel.force(false);
+      }
+      channel.close();
+      if (archiver != null) {
+        if (compressRolledSegments && segmentBytes > 0) {
+          archiveSegment();
+        }
+        archiver.close();
+      }
+    } catch (IOException e) {
+      log.warn("Failed to close file with curl commands: {}", file, e);
+    }
+  }
+
+  private void enqueue(Object command) {
+    if (closed) {
+      dropped.incrementAndGet();
+      return;
+    }
+    if (!overflowPolicy.reserve(() -> queue.offer(command), this::dropOldest, () -> closed)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void dropOldest() {
+    if (queue.poll() != null) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void writeBatches() {
+    List<Object> batch = new ArrayList<>(batchSize);
+    boolean closing = false;
+    while (!closing) {
+      try {
+        batch.add(queue.take());
+        long deadline = System.nanoTime() + lingerNanos;
+        while (batch.size() < batchSize && batch.get(batch.size() - 1) != CLOSE) {
+          if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+            continue;
+          }
+          long remaining = deadline - System.nanoTime();
+          Object next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+          if (next == null) {
+            break;
+          }
+          batch.add(next);
+        }
+      } catch (InterruptedException e) {
+        closing = true;
+      }
+      closing |= batch.remove(CLOSE);
+      write(batch);
+      batch.clear();
+    }
+    // Commands handled while closing
+    queue.drainTo(batch);
+    batch.remove(CLOSE);
+    write(batch);
+  }
+
+  private void write(List<Object> batch) {
+    if (batch.isEmpty()) {
+      return;
+    }
+    try {
+      if (!channel.isOpen()) {
+        // Reopening has failed after rolling over
+        openSegment();
+      }
+      if (shouldRollOver()) {
+        rollOver();
+      }
+      // Stamped here rather than when handled, so that records of a segment are ordered by time
+      long timestampMillis = Math.max(lastTimestampMillis, System.currentTimeMillis());
+      lastTimestampMillis = timestampMillis;
+      for (Object command : batch) {
+        if (framed) {
+          writeRecord(timestampMillis, command);
+        } else {
+          encode(command.toString());
+          encode(lineSeparator);
+        }
+      }
+      flushBuffer();
+      if (fsyncPolicy == FsyncPolicy.EVERY_BATCH) {
+        channel.force(false);
+      }
+    } catch (IOException | RuntimeException e) {
+      buffer.clear();
+      log.warn("Failed to write {} curl commands to file: {}", batch.size(), file, e);
+    }
+  }
+
+  private void encode(String text) throws IOException {
+    CharBuffer chars = CharBuffer.wrap(text);
+    encoder.reset();
+    while (true) {
+      CoderResult result = encoder.encode(chars, buffer, true);
+      if (result.isOverflow()) {
+        flushBuffer();
+      } else if (result.isUnderflow()) {
+        break;
+      } else {
+        result.throwException();
+      }
+    }
+    while (encoder.flush(buffer).isOverflow()) {
+      flushBuffer();
+    }
+  }
+
+  private void writeRecord(long timestampMillis, Object command) throws IOException {
+    byte[] bytes = command.toString().getBytes(StandardCharsets.UTF_8);
+    put(ProcessSegments.header(timestampMillis, bytes.length));
+    put(bytes);
+    put(RECORD_END);
+  }
+
+  private void put(byte[] bytes) throws IOException {
+    int offset = 0;
+    while (offset < bytes.length) {
+      if (!buffer.hasRemaining()) {
+        flushBuffer();
+      }
+      int length = Math.min(buffer.remaining(), bytes.length - offset);
+      buffer.put(bytes, offset, length);
+      offset += length;
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      segmentBytes += channel.write(buffer);
+    }
+    buffer.clear();
+  }
+
+  private void openSegment() throws IOException {
+    channel =
+        FileChannel.open(
+            file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    if (framed) {
+      // Left by a killed process with the same id, it would make appended records unreadable
+      long validLength = ProcessSegments.validLength(file);
+      if (validLength < channel.size()) {
+        log.warn("Truncating unfinished curl command at the end of {}", file);
+        channel.truncate(validLength);
+      }
+    }
+    segmentBytes = channel.size();
+    segmentStartNanos = System.nanoTime();
+  }
+
+  private boolean shouldRollOver() {
+    if (archiver == null || segmentBytes == 0) {
+      return false;
+    }
+    return segmentBytes >= rollOverBytes
+        || (maxSegmentAgeNanos >= 0 && System.nanoTime() - segmentStartNanos >= maxSegmentAgeNanos);
+  }
+
+  private void rollOver() throws IOException {
+    if (fsyncPolicy != FsyncPolicy.NEVER) {
+      channel.force(false);
+    }
+    channel.close();
+    try {
+      archiveSegment();
+    } catch (IOException | RuntimeException e) {
+      log.warn("Failed to roll over file with curl commands, appending to it: {}", file, e);
+    }
+    openSegment();
+    // Segment that failed to roll over is rolled over again only after it grows by its size limit
+    rollOverBytes =
+        segmentBytes > Long.MAX_VALUE - maxSegmentBytes
+            ? Long.MAX_VALUE
+            : segmentBytes + maxSegmentBytes;
+  }
+
+  // Renames the active segment and leaves compressing it to the archiver
+  private void archiveSegment() throws IOException {
+    Path segment = archiver.nextSegment();
+    Files.move(file, segment);
+    segmentBytes = 0;
+    archiver.archive(segment);
+  }
+
+  /** Builder of {@link CurlFileWriter}. */
+  public static final class Builder {
+
+    private final Path file;
+    private int batchSize = 256;
+    private Duration lingerTime = Duration.ofMillis(5);
+    private FsyncPolicy fsyncPolicy = FsyncPolicy.ON_CLOSE;
+    private int queueCapacity = 8192;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long maxSegmentBytes = Long.MAX_VALUE;
+    private Duration maxSegmentAge;
+    private boolean compressRolledSegments = true;
+    private long maxArchiveBytes = Long.MAX_VALUE;
+    private boolean segmentPerProcess;
+
+    private Builder(Path file) {
+      this.file = file;
+    }
+
+    /** Sets maximum number of commands written at once. Defaults to 256. */
+    public Builder batchSize(int batchSize) {
+      if (batchSize < 1) {
+        throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+      }
+      this.batchSize = batchSize;
+      return this;
+    }
+
+    /**
+     * Sets how long to wait for more commands to fill a batch before writing it. Defaults to 5
+     * milliseconds.
+     */
+    public Builder lingerTime(Duration lingerTime) {
+      if (lingerTime.isNegative()) {
+        throw new IllegalArgumentException("Linger time must not be negative: " + lingerTime);
+      }
+      this.lingerTime = lingerTime;
+      return this;
+    }
+
+    /**
+     * Defines when commands are forced to the storage device. Defaults to {@link
+     * FsyncPolicy#ON_CLOSE}.
+     */
+    public Builder fsync(FsyncPolicy fsyncPolicy) {
+      this.fsyncPolicy = fsyncPolicy;
+      return this;
+    }
+
+    /** Limits number of commands waiting to be written. Defaults to 8192. */
+    public Builder queueCapacity(int queueCapacity) {
+      if (queueCapacity < 1) {
+        throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+      }
+      this.queueCapacity = queueCapacity;
+      return this;
+    }
+
+    /**
+     * Defines what to do when the writer cannot keep up and the queue is full. Defaults to {@link
+     * OverflowPolicy#BLOCK}.
+     */
+    public Builder overflowPolicy(OverflowPolicy overflowPolicy) {
+      this.overflowPolicy = overflowPolicy;
+      return this;
+    }
+
+    /**
+     * Rolls the file over once it reaches a given size. The size may be exceeded by the last batch
+     * written. By default, the file is not rolled over by size.
+     */
+    public Builder maxSegmentSize(long maxSegmentBytes) {
+      if (maxSegmentBytes < 1) {
+        throw new IllegalArgumentException("Segment size must be positive: " + maxSegmentBytes);
+      }
+      this.maxSegmentBytes = maxSegmentBytes;
+      return this;
+    }
+
+    /**
+     * Rolls the file over once it has been written to for a given time. The file is rolled over
+     * before writing a batch, so a file no longer written to is not rolled over until closing. By
+     * default, the file is not rolled over by age.
+     */
+    public Builder maxSegmentAge(Duration maxSegmentAge) {
+      if (maxSegmentAge.isNegative() || maxSegmentAge.isZero()) {
+        throw new IllegalArgumentException("Segment age must be positive: " + maxSegmentAge);
+      }
+      this.maxSegmentAge = maxSegmentAge;
+      return this;
+    }
+
+    /**
+     * Defines whether rolled segments are compressed with gzip. Compressed segments get ".gz"
+     * extension. Defaults to {@code true}.
+     */
+    public Builder compressRolledSegments(boolean compressRolledSegments) {
+      this.compressRolledSegments = compressRolledSegments;
+      return this;
+    }
+
+    /**
+     * Limits total size of rolled segments; the oldest ones are deleted when the limit is exceeded.
+     * Unlimited by default.
+     */
+    public Builder maxArchiveSize(long maxArchiveBytes) {
+      if (maxArchiveBytes < 0) {
+        throw new IllegalArgumentException("Archive size must not be negative: " + maxArchiveBytes);
+      }
+      this.maxArchiveBytes = maxArchiveBytes;
+      return this;
+    }
+
+    /**
+     * Writes commands to a segment of the file owned by the current process, named after the file
+     * and process id, e.g., {@code curl.log.1234}. Commands are written as framed records with time
+     * they have been written, to be merged later with {@link #mergeProcessSegments(Path)}. Cannot
+     * be combined with rolling over.
+     */
+    public Builder segmentPerProcess() {
+      this.segmentPerProcess = true;
+      return this;
+    }
+
+    /**
+     * Opens the file and starts the writer thread.
+     *
+     * @return writer appending curl commands to the file
+     * @throws IOException if the file cannot be opened
+     */
+    public CurlFileWriter build() throws IOException {
+      if (segmentPerProcess && (maxSegmentBytes != Long.MAX_VALUE || maxSegmentAge != null)) {
+        throw new IllegalStateException("Segment per process cannot be rolled over");
+      }
+      return new CurlFileWriter(this);
+    }
+  }
+}
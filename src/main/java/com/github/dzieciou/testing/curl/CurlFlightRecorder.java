@@ -0,0 +1,289 @@
+package com.github.dzieciou.testing.curl;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Handler keeping curl commands of the most recent requests in memory, without serializing them, so
+ * that they can be printed only when needed, e.g., when a test fails. Recording a command costs
+ * little more than writing it to a slot of a ring buffer; the command is serialized to text only
+ * when dumped.
+ *
+ * <p>Commands are kept either in a single buffer shared by all threads ({@link #global(int, long)})
+ * or in a separate buffer for each thread ({@link #perThread(int, long)}). Each buffer holds at
+ * most a given number of commands and evicts the oldest ones once their estimated size exceeds a
+ * memory budget. The most recent command is always kept, even if it alone exceeds the budget.
+ *
+ * <p>The recorder is thread-safe. Dumping does not remove commands; use {@link #clear()} for that.
+ */
+public final class CurlFlightRecorder implements CurlHandler {
+
+  private final int capacity;
+  private final long maxBytes;
+  private final boolean perThread;
+  private final Buffer globalBuffer;
+  private final ConcurrentMap<Thread, Buffer> threadBuffers;
+  private final Queue<Buffer> buffers = new ConcurrentLinkedQueue<>();
+
+  private CurlFlightRecorder(int capacity, long maxBytes, boolean perThread) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+    }
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("Memory budget must be positive: " + maxBytes);
+    }
+    this.capacity = capacity;
+    this.maxBytes = maxBytes;
+    this.perThread = perThread;
+    this.globalBuffer = perThread ? null : new Buffer(null, capacity, maxBytes);
+    this.threadBuffers = perThread ? new ConcurrentHashMap<>() : null;
+  }
+
+  /**
+   * Creates a recorder keeping commands of requests sent from all threads in a single buffer.
+   *
+   * @param capacity maximum number of commands kept
+   * @param maxBytes memory budget of kept commands, in bytes
+   * @return flight recorder
+   */
+  public static CurlFlightRecorder global(int capacity, long maxBytes) {
+    return new CurlFlightRecorder(capacity, maxBytes, false);
+  }
+
+  /**
+   * Creates a recorder keeping commands of requests sent from each thread in a separate buffer, so
+   * that commands of one thread are not evicted by requests sent from other threads. Capacity and
+   * memory budget apply to each buffer. Commands are kept by the thread that sent the request, also
+   * when they are processed asynchronously. Buffers of threads that have terminated are kept until
+   * {@link #clear()}.
+   *
+   * @param capacity maximum number of commands kept per thread
+   * @param maxBytes memory budget of commands kept per thread, in bytes
+   * @return flight recorder
+   */
+  public static CurlFlightRecorder perThread(int capacity, long maxBytes) {
+    return new CurlFlightRecorder(capacity, maxBytes, true);
+  }
+
+  @Override
+  public void handle(GeneratedCurl curl, Options options) {
+    buffer(curl.getThread()).add(curl, options, curl.getThread(), curl.estimateRetainedSize());
+  }
+
+  /** Records summary of suppressed commands, so that it is dumped in between commands. */
+  @Override
+  public void handleSummary(String summary, Options options) {
+    handle(summary, options);
+  }
+
+  @Override
+  public void handle(String curl, Options options) {
+    Thread thread = Thread.currentThread();
+    buffer(thread).add(curl, options, thread, 40 + 2L * curl.length());
+  }
+
+  /**
+   * Returns curl commands kept, oldest first, serialized according to options they have been
+   * generated with. For a per-thread recorder, commands are grouped by thread.
+   *
+   * @return curl commands kept
+   */
+  public List<String> dump() {
+    List<String> result = new ArrayList<>();
+    for (Buffer buffer : allBuffers()) {
+      buffer.forEach(entry -> result.add(entry.payload.toString()));
+    }
+    return result;
+  }
+
+  /**
+   * Returns curl commands of requests sent from the calling thread, oldest first, e.g., to print
+   * them when a test running in that thread fails.
+   *
+   * @return curl commands kept for the calling thread
+   */
+  public List<String> dumpCurrentThread() {
+    List<String> result = new ArrayList<>();
+    long threadId = Thread.currentThread().getId();
+    for (Buffer buffer : allBuffers()) {
+      buffer.forEach(
+          entry -> {
+            if (entry.threadId == threadId) {
+              result.add(entry.payload.toString());
+            }
+          });
+    }
+    return result;
+  }
+
+  /**
+   * Passes curl commands kept, oldest first, to a given handler, as if they have just been
+   * generated. For a per-thread recorder, commands are grouped by thread.
+   *
+   * @param handler handler that can log or process in any other way the curl commands.
+   */
+  public void dumpTo(CurlHandler handler) {
+    for (Buffer buffer : allBuffers()) {
+      buffer.forEach(
+          entry -> {
+            if (entry.payload instanceof GeneratedCurl) {
+              handler.handle((GeneratedCurl) entry.payload, entry.options);
+            } else {
+              handler.handleSummary((String) entry.payload, entry.options);
+            }
+          });
+    }
+  }
+
+  /**
+   * Passes curl commands kept to a given handler when JVM shuts down, e.g., to have them logged if
+   * a test run is aborted.
+   *
+   * @param handler handler that can log or process in any other way the curl commands.
+   */
+  public void dumpOnShutdown(CurlHandler handler) {
+    Runtime.getRuntime()
+        .addShutdownHook(new Thread(() -> dumpTo(handler), "curl-flight-recorder-dump"));
+  }
+
+  /** Removes all commands kept, and forgets buffers of threads that have terminated. */
+  public void clear() {
+    for (Iterator<Buffer> it = allBuffers().iterator(); it.hasNext(); ) {
+      Buffer buffer = it.next();
+      buffer.clear();
+      if (buffer.isOwnerTerminated()) {
+        it.remove();
+        threadBuffers.values().remove(buffer);
+      }
+    }
+  }
+
+  /**
+   * Returns estimated number of bytes of heap retained by commands kept.
+   *
+   * @return estimated size of commands kept
+   */
+  public long getRetainedBytes() {
+    long result = 0;
+    for (Buffer buffer : allBuffers()) {
+      result += buffer.bytes.get();
+    }
+    return result;
+  }
+
+  private Buffer buffer(Thread thread) {
+    if (!perThread) {
+      return globalBuffer;
+    }
+    Buffer buffer = threadBuffers.get(thread);
+    return buffer != null ? buffer : threadBuffers.computeIfAbsent(thread, this::newThreadBuffer);
+  }
+
+  private Iterable<Buffer> allBuffers() {
+    return perThread ? buffers : Collections.singletonList(globalBuffer);
+  }
+
+  private Buffer newThreadBuffer(Thread thread) {
+    Buffer buffer = new Buffer(thread, capacity, maxBytes);
+    buffers.add(buffer);
+    return buffer;
+  }
+
+  /** Command kept in a buffer, with its position in the buffer. */
+  private static final class Entry {
+
+    final long sequence;
+    final Object payload;
+    final Options options;
+    final long threadId;
+    final long size;
+
+    Entry(long sequence, Object payload, Options options, long threadId, long size) {
+      this.sequence = sequence;
+      this.payload = payload;
+      this.options = options;
+      this.threadId = threadId;
+      this.size = size;
+    }
+  }
+
+  /** Ring buffer of entries, evicting the oldest ones once over the memory budget. */
+  private static final class Buffer {
+
+    private final WeakReference<Thread> owner;
+    private final AtomicReferenceArray<Entry> slots;
+    private final long maxBytes;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    // Sequence number below which all entries are known to be evicted
+    private volatile long evicted;
+
+    Buffer(Thread owner, int capacity, long maxBytes) {
+      this.owner = owner != null ? new WeakReference<>(owner) : null;
+      this.slots = new AtomicReferenceArray<>(capacity);
+      this.maxBytes = maxBytes;
+    }
+
+    void add(Object payload, Options options, Thread thread, long size) {
+      long sequence = next.getAndIncrement();
+      Entry entry = new Entry(sequence, payload, options, thread.getId(), size);
+      Entry replaced = slots.getAndSet(index(sequence), entry);
+      long total = bytes.addAndGet(replaced != null ? size - replaced.size : size);
+      if (total > maxBytes) {
+        evictOldest(sequence);
+      }
+    }
+
+    private void evictOldest(long newest) {
+      long sequence = Math.max(evicted, newest - slots.length() + 1);
+      while (sequence < newest && bytes.get() > maxBytes) {
+        remove(sequence++);
+      }
+      evicted = sequence;
+    }
+
+    private void remove(long sequence) {
+      int index = index(sequence);
+      Entry entry = slots.get(index);
+      if (entry != null && entry.sequence == sequence && slots.compareAndSet(index, entry, null)) {
+        bytes.addAndGet(-entry.size);
+      }
+    }
+
+    void forEach(Consumer<Entry> action) {
+      long last = next.get();
+      for (long sequence = Math.max(0, last - slots.length()); sequence < last; sequence++) {
+        Entry entry = slots.get(index(sequence));
+        if (entry != null && entry.sequence == sequence) {
+          action.accept(entry);
+        }
+      }
+    }
+
+    void clear() {
+      long last = next.get();
+      for (long sequence = Math.max(0, last - slots.length()); sequence < last; sequence++) {
+        remove(sequence);
+      }
+    }
+
+    boolean isOwnerTerminated() {
+      Thread thread = owner != null ? owner.get() : null;
+      return owner != null && (thread == null || !thread.isAlive());
+    }
+
+    private int index(long sequence) {
+      return (int) (sequence % slots.length());
+    }
+  }
+}
@@ -0,0 +1,292 @@
+package com.github.dzieciou.testing.curl;
+
+import io.restassured.authentication.BasicAuthScheme;
+import io.restassured.config.EncoderConfig;
+import io.restassured.filter.FilterContext;
+import io.restassured.filter.OrderedFilter;
+import io.restassured.http.Cookie;
+import io.restassured.response.Response;
+import io.restassured.specification.FilterableRequestSpecification;
+import io.restassured.specification.FilterableResponseSpecification;
+import io.restassured.specification.MultiPartSpecification;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.Header;
+import org.apache.http.ParseException;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHeader;
+import org.apache.http.protocol.HTTP;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * REST-assured filter generating curl command for each request straight from its specification,
+ * without intercepting HTTP client. Request body is taken as REST-assured already holds it in
+ * memory, so it is neither serialized nor read again. Body sent from a file is referred to by its
+ * path, while body sent from an input stream is left out, as reading it would consume it.
+ *
+ * <p>Only headers known to REST-assured are printed; headers added later by HTTP client, such as
+ * {@code Host} or {@code User-Agent}, are not. The filter runs after all other filters, so that it
+ * sees the request as they have left it.
+ */
+public class CurlGeneratingFilter implements OrderedFilter, Closeable {
+
+  private static final Logger log = LoggerFactory.getLogger("curl");
+
+  private final CurlGeneratingInterceptor interceptor;
+
+  /** Creates a filter generating curl command using default options and handlers. */
+  public CurlGeneratingFilter() {
+    this(CurlRestAssuredConfigFactory.getDefaultOptions());
+  }
+
+  /**
+   * Creates a filter generating curl command using custom options and default handlers.
+   *
+   * @param options options defining curl generation
+   */
+  public CurlGeneratingFilter(Options options) {
+    this(options, CurlRestAssuredConfigFactory.getDefaultHandlers());
+  }
+
+  /**
+   * Creates a filter generating curl command using custom options and handlers.
+   *
+   * @param options options defining curl generation
+   * @param handlers handlers that can log or process in any other way the generated curl command.
+   */
+  public CurlGeneratingFilter(Options options, List<CurlHandler> handlers) {
+    this.interceptor = new CurlGeneratingInterceptor(options, handlers);
+  }
+
+  @Override
+  public Response filter(
+      FilterableRequestSpecification requestSpec,
+      FilterableResponseSpecification responseSpec,
+      FilterContext ctx) {
+    if (!interceptor.isAnyHandlerEnabled() || !interceptor.sample(() -> getEndpoint(requestSpec))) {
+      return ctx.next(requestSpec, responseSpec);
+    }
+    CurlGeneratingInterceptor.PendingExchange pending = null;
+    try {
+      StackTraceElement[] stacktrace = interceptor.captureStacktrace();
+      RequestSnapshot snapshot = snapshot(requestSpec, interceptor.getOptions());
+      if (interceptor.isLoggingConditionally()) {
+        pending = new CurlGeneratingInterceptor.PendingExchange(stacktrace);
+        pending.setSnapshot(snapshot);
+      } else {
+        interceptor.dispatch(snapshot, stacktrace);
+      }
+    } catch (Exception e) {
+      log.warn("Failed to generate CURL command for HTTP request", e);
+    }
+    if (pending == null) {
+      return ctx.next(requestSpec, responseSpec);
+    }
+    Response response;
+    try {
+      response = ctx.next(requestSpec, responseSpec);
+    } catch (RuntimeException | Error e) {
+      interceptor.complete(pending, -1, e);
+      throw e;
+    }
+    interceptor.complete(pending, response.getStatusCode(), null);
+    return response;
+  }
+
+  @Override
+  public int getOrder() {
+    return LOWEST_PRECEDENCE;
+  }
+
+  /**
+   * Returns number of requests that have not been logged because asynchronous processing could not
+   * keep up with them. Always zero when processing synchronously.
+   *
+   * @return number of dropped requests
+   */
+  public long getDroppedCount() {
+    return interceptor.getDroppedCount();
+  }
+
+  /**
+   * Generates and handles curl commands for all requests still waiting for asynchronous processing.
+   * Requests filtered after closing are processed synchronously.
+   */
+  @Override
+  public void close() {
+    interceptor.close();
+  }
+
+  // Prefers path template, e.g. "/users/{id}", to resolved path
+  private static String getEndpoint(FilterableRequestSpecification requestSpec) {
+    String method = requestSpec.getMethod();
+    String url = requestSpec.getURI();
+    String path = requestSpec.getUserDefinedPath();
+    if (path == null || path.isEmpty() || path.contains("://")) {
+      return SamplingPolicy.endpointOfUrl(method, url, "");
+    }
+    return SamplingPolicy.endpoint(
+        method, SamplingPolicy.hostOf(url), requestSpec.getBasePath() + "/" + path);
+  }
+
+  static RequestSnapshot snapshot(FilterableRequestSpecification requestSpec, Options options)
+      throws IOException {
+    String method = requestSpec.getMethod();
+    String url = requestSpec.getURI();
+    String contentType = requestSpec.getContentType();
+    List<Header> headers = getHeaders(requestSpec);
+
+    if (!requestSpec.getMultiPartParams().isEmpty()) {
+      return RequestSnapshot.withFormParts(
+          method, url, classify(headers), getFormParts(requestSpec.getMultiPartParams()));
+    }
+    Object body = requestSpec.getBody();
+    if (body == null && !requestSpec.getFormParams().isEmpty()) {
+      body = encodeFormParams(requestSpec.getFormParams(), getCharset(contentType));
+    }
+    if (body instanceof InputStream) {
+      // Reading the stream would consume it before REST-assured sends it
+      log.warn("Request body from InputStream left out of CURL command for {} {}", method, url);
+      body = null;
+    }
+    if (body == null) {
+      return RequestSnapshot.withoutEntity(method, url, classify(headers));
+    }
+    if (contentType == null) {
+      contentType = getDefaultContentType(requestSpec, body);
+      headers.add(new BasicHeader("Content-Type", contentType));
+    }
+    Charset charset = getCharset(contentType);
+    if (body instanceof File) {
+      return RequestSnapshot.withBody(
+          method, url, classify(headers), CapturedBody.ofFile(((File) body).toPath(), charset));
+    }
+    byte[] bytes = body instanceof byte[] ? (byte[]) body : String.valueOf(body).getBytes(charset);
+    return RequestSnapshot.withBody(
+        method, url, classify(headers), CapturedBody.of(bytes, charset, options));
+  }
+
+  // REST-assured adds default Content-Type only when sending the request, after all filters
+  private static String getDefaultContentType(
+      FilterableRequestSpecification requestSpec, Object body) {
+    EncoderConfig encoderConfig = requestSpec.getConfig().getEncoderConfig();
+    String mimeType =
+        body instanceof byte[] || body instanceof File
+            ? ContentType.APPLICATION_OCTET_STREAM.getMimeType()
+            : ContentType.TEXT_PLAIN.getMimeType();
+    return encoderConfig.shouldAppendDefaultContentCharsetToContentTypeIfUndefined()
+        ? mimeType + "; charset=" + encoderConfig.defaultContentCharset()
+        : mimeType;
+  }
+
+  private static ClassifiedHeaders classify(List<Header> headers) {
+    return ClassifiedHeaders.classify(headers.toArray(new Header[0]));
+  }
+
+  private static List<Header> getHeaders(FilterableRequestSpecification requestSpec) {
+    List<Header> headers = new ArrayList<>();
+    requestSpec.getHeaders().forEach(h -> headers.add(new BasicHeader(h.getName(), h.getValue())));
+    if (requestSpec.getAuthenticationScheme() instanceof BasicAuthScheme) {
+      // Challenged basic authentication is not a header yet, but curl handles it the same way
+      BasicAuthScheme scheme = (BasicAuthScheme) requestSpec.getAuthenticationScheme();
+      String credentials = scheme.getUserName() + ":" + scheme.getPassword();
+      headers.add(
+          new BasicHeader(
+              "Authorization",
+              "Basic "
+                  + Base64.getEncoder()
+                      .encodeToString(credentials.getBytes(StandardCharsets.UTF_8))));
+    }
+    if (requestSpec.getCookies().exist()) {
+      StringBuilder cookies = new StringBuilder();
+      for (Cookie cookie : requestSpec.getCookies()) {
+        if (cookies.length() > 0) {
+          cookies.append("; ");
+        }
+        cookies.append(cookie.getName()).append('=').append(cookie.getValue());
+      }
+      headers.add(new BasicHeader("Cookie", cookies.toString()));
+    }
+    return headers;
+  }
+
+  private static List<CurlCommand.FormPart> getFormParts(List<MultiPartSpecification> specs) {
+    List<CurlCommand.FormPart> parts = new ArrayList<>(specs.size());
+    for (MultiPartSpecification spec : specs) {
+      StringBuilder content = new StringBuilder();
+      Object value = spec.getContent();
+      if (value instanceof String) {
+        // REST-assured gives text parts a default file name, but never sends it
+        content.append(value);
+      } else if (spec.hasFileName()) {
+        content.append('@').append(spec.getFileName());
+      } else if (value instanceof File) {
+        content.append('@').append(((File) value).getPath());
+      } else if (value instanceof byte[]) {
+        Charset charset =
+            spec.getCharset() != null
+                ? Charset.forName(spec.getCharset())
+                : HTTP.DEF_CONTENT_CHARSET;
+        content.append(new String((byte[]) value, charset));
+      } else {
+        content.append(value);
+      }
+      content.append(";type=").append(spec.getMimeType());
+      if (spec.getCharset() != null) {
+        content.append("; charset=").append(spec.getCharset());
+      }
+      parts.add(new CurlCommand.FormPart(spec.getControlName(), content.toString()));
+    }
+    return parts;
+  }
+
+  private static String encodeFormParams(Map<String, String> formParams, Charset charset)
+      throws UnsupportedEncodingException {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String, String> param : formParams.entrySet()) {
+      if (sb.length() > 0) {
+        sb.append('&');
+      }
+      sb.append(encode(param.getKey(), charset));
+      if (param.getValue() != null) {
+        sb.append('=').append(encode(param.getValue(), charset));
+      }
+    }
+    return sb.toString();
+  }
+
+  // Encodes spaces as "%20", like REST-assured does
+  private static String encode(String s, Charset charset) throws UnsupportedEncodingException {
+    return URLEncoder.encode(s, charset.name()).replace("+", "%20");
+  }
+
+  // Mirrors charset resolution of EntityUtils.toString(HttpEntity)
+  private static Charset getCharset(String contentType) {
+    if (contentType == null) {
+      return HTTP.DEF_CONTENT_CHARSET;
+    }
+    try {
+      ContentType parsed = ContentType.parse(contentType);
+      Charset charset = parsed.getCharset();
+      if (charset == null) {
+        ContentType defaultContentType = ContentType.getByMimeType(parsed.getMimeType());
+        charset = defaultContentType != null ? defaultContentType.getCharset() : null;
+      }
+      return charset != null ? charset : HTTP.DEF_CONTENT_CHARSET;
+    } catch (ParseException | IllegalArgumentException e) {
+      // Also thrown for unsupported charsets
+      return HTTP.DEF_CONTENT_CHARSET;
+    }
+  }
+}
@@ -1,25 +1,58 @@
 package com.github.dzieciou.testing.curl;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.apache.http.Header;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.protocol.HttpContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-/** Logs each HTTP request as CURL command in "curl" log. */
-public class CurlGeneratingInterceptor implements HttpRequestInterceptor {
+/**
+ * Logs each HTTP request as CURL command in "curl" log.
+ *
+ * <p>The interceptor keeps no per-request state, so a single instance can be shared by an HTTP
+ * client sending requests from many threads, provided that its handlers are thread-safe.
+ *
+ * <p>When logging conditionally (see {@link Options.Builder#logOnlyIf(Predicate)}), its {@link
+ * #responseInterceptor()} must be added to HTTP client, too. The request captured is then kept in
+ * {@link HttpContext} until the response arrives.
+ */
+public class CurlGeneratingInterceptor implements HttpRequestInterceptor, Closeable {
 
   private static final Logger log = LoggerFactory.getLogger("curl");
+  private static final String PENDING_EXCHANGE = "curl-logger.pending-exchange";
   private final Options options;
 
   private final Http2Curl http2Curl;
 
   private final List<CurlHandler> handlers;
 
+  private final AsyncCurlProcessor asyncProcessor;
+
+  private final StackFrameFilter stackFrameFilter;
+
+  private final SamplingPolicy.Sampler sampler;
+
+  private final DuplicateSuppressor duplicateSuppressor;
+
+  private final Predicate<Exchange> exchangeCondition;
+
   public CurlGeneratingInterceptor(Options options, List<CurlHandler> handlers) {
     if (handlers.isEmpty()) {
       throw new IllegalArgumentException("Missing handlers, at least one should be given");
@@ -27,28 +60,300 @@ public class CurlGeneratingInterceptor implements HttpRequestInterceptor {
     this.options = options;
     this.handlers = new ArrayList(handlers);
     http2Curl = new Http2Curl(options);
+    stackFrameFilter = new StackFrameFilter(options);
+    sampler = options.samplingPolicy().newSampler();
+    exchangeCondition = options.getExchangeCondition().orElse(null);
+    duplicateSuppressor =
+        options.suppressDuplicates()
+            ? new DuplicateSuppressor(
+                options.duplicateWindow().toNanos(),
+                options.maxSuppressedDuplicates(),
+                System::nanoTime)
+            : null;
+    if (duplicateSuppressor != null) {
+      RepeatReporter.register(this);
+    }
+    asyncProcessor =
+        options.processAsynchronously()
+            ? new AsyncCurlProcessor(
+                options.asyncQueueCapacity(),
+                options.asyncWorkerThreads(),
+                options.asyncOverflowPolicy())
+            : null;
+  }
+
+  @Override
+  public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+    if (!isAnyHandlerEnabled() || !sample(() -> getEndpoint(request))) {
+      return;
+    }
+    try {
+      StackTraceElement[] stacktrace = captureStacktrace();
+      if (exchangeCondition != null) {
+        PendingExchange pending = new PendingExchange(stacktrace);
+        context.setAttribute(PENDING_EXCHANGE, pending);
+        http2Curl.snapshot(request, pending::setSnapshot);
+      } else {
+        http2Curl.snapshot(request, snapshot -> dispatch(snapshot, stacktrace));
+      }
+    } catch (Exception e) {
+      log.warn("Failed to generate CURL command for HTTP request", e);
+    }
+  }
+
+  /**
+   * Returns response interceptor paired with this interceptor. It generates curl command for the
+   * request a response is for, if the exchange matches the condition for logging conditionally, and
+   * does nothing otherwise.
+   *
+   * @return response interceptor
+   */
+  public HttpResponseInterceptor responseInterceptor() {
+    return (response, context) ->
+        completeExchange(context, response.getStatusLine().getStatusCode(), null);
+  }
+
+  /**
+   * Generates curl command for a request that has failed with an exception, if the exchange matches
+   * the condition for logging conditionally.
+   *
+   * @param context context of the request
+   * @param exception exception the request has failed with
+   */
+  void failed(HttpContext context, IOException exception) {
+    completeExchange(context, -1, exception);
+  }
+
+  boolean isLoggingConditionally() {
+    return exchangeCondition != null;
   }
 
-  private static void printStacktrace(StringBuffer sb) {
-    StackTraceElement[] trace = Thread.currentThread().getStackTrace();
-    for (StackTraceElement traceElement : trace) {
-      sb.append("\tat ").append(traceElement).append(System.lineSeparator());
+  private void completeExchange(HttpContext context, int statusCode, Throwable exception) {
+    Object pending = context.getAttribute(PENDING_EXCHANGE);
+    if (pending instanceof PendingExchange) {
+      context.removeAttribute(PENDING_EXCHANGE);
+      complete((PendingExchange) pending, statusCode, exception);
     }
   }
 
+  /**
+   * Generates curl command for a captured request if its exchange matches the condition. The
+   * request is not serialized otherwise.
+   *
+   * @param pending request captured when it was sent
+   * @param statusCode status code of the response, or negative if there was no response
+   * @param exception exception the request has failed with, or {@code null}
+   */
+  void complete(PendingExchange pending, int statusCode, Throwable exception) {
+    try {
+      Exchange exchange =
+          new Exchange(
+              statusCode, Duration.ofNanos(System.nanoTime() - pending.startNanos), exception);
+      RequestSnapshot snapshot = pending.snapshot;
+      // Snapshot is missing if sending the request body has failed or stopped before its end
+      if (snapshot != null && exchangeCondition.test(exchange)) {
+        dispatch(snapshot, pending.stacktrace, exchange);
+      }
+    } catch (Exception e) {
+      log.warn("Failed to generate CURL command for HTTP request", e);
+    }
+  }
+
+  /**
+   * Decides whether to generate curl command for a request, according to sampling policy.
+   *
+   * @param endpoint supplies endpoint identifier of the request
+   * @return {@code true} if curl command should be generated
+   */
+  boolean sample(Supplier<String> endpoint) {
+    return sampler.sample(endpoint);
+  }
+
+  private static String getEndpoint(HttpRequest request) {
+    Header host = request.getFirstHeader("Host");
+    return SamplingPolicy.endpointOfUrl(
+        request.getRequestLine().getMethod(),
+        request.getRequestLine().getUri(),
+        host != null ? host.getValue() : "");
+  }
+
+  /** Returns stacktrace of the calling thread, if it should be printed, or {@code null}. */
+  StackTraceElement[] captureStacktrace() {
+    return options.canLogStacktrace() ? StackCapture.capture(stackFrameFilter) : null;
+  }
+
+  /** Generates curl command for a given snapshot and passes it to handlers. */
+  void dispatch(RequestSnapshot snapshot, StackTraceElement[] stacktrace) {
+    dispatch(snapshot, stacktrace, null);
+  }
+
+  private void dispatch(
+      RequestSnapshot snapshot, StackTraceElement[] stacktrace, Exchange exchange) {
+    if (asyncProcessor != null) {
+      asyncProcessor.submit(() -> handle(snapshot, stacktrace, exchange));
+    } else {
+      handle(snapshot, stacktrace, exchange);
+    }
+  }
+
+  Options getOptions() {
+    return options;
+  }
+
+  boolean isAnyHandlerEnabled() {
+    for (CurlHandler handler : handlers) {
+      if (handler.isEnabled(options)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns number of requests that have not been logged because asynchronous processing could not
+   * keep up with them. Always zero when processing synchronously.
+   *
+   * @return number of dropped requests
+   */
+  public long getDroppedCount() {
+    return asyncProcessor != null ? asyncProcessor.getDroppedCount() : 0;
+  }
+
+  /**
+   * Generates and handles curl commands for all requests still waiting for asynchronous processing,
+   * and reports repeated commands still being suppressed. Requests intercepted after closing are
+   * processed synchronously. Interceptors suppressing duplicates are closed on JVM shutdown, too.
+   */
   @Override
-  public void process(HttpRequest request, HttpContext context) throws HttpException, IOException {
+  public void close() {
+    if (asyncProcessor != null) {
+      asyncProcessor.close();
+    }
+    if (duplicateSuppressor != null) {
+      RepeatReporter.unregister(this);
+      handleSummaries(duplicateSuppressor.flush());
+    }
+  }
+
+  private void reportExpiredRepeats() {
+    List<DuplicateSuppressor.Summary> summaries = duplicateSuppressor.expire();
+    if (summaries.isEmpty()) {
+      return;
+    }
+    if (asyncProcessor != null) {
+      asyncProcessor.submit(() -> handleSummaries(summaries));
+    } else {
+      handleSummaries(summaries);
+    }
+  }
+
+  private void handle(RequestSnapshot snapshot, StackTraceElement[] stacktrace, Exchange exchange) {
     try {
-      String curl = http2Curl.generateCurl(request);
-      StringBuffer message = new StringBuffer(curl);
-      if (options.canLogStacktrace()) {
-        message.append(String.format("%n\tgenerated%n"));
-        printStacktrace(message);
-      }
-      String finalMessage = message.toString();
-      this.handlers.forEach(h -> h.handle(finalMessage, this.options));
+      CurlCommand command = http2Curl.generateCurlCommand(snapshot);
+      if (duplicateSuppressor != null) {
+        List<DuplicateSuppressor.Summary> summaries = duplicateSuppressor.offer(command);
+        if (summaries == null) {
+          return;
+        }
+        handleSummaries(summaries);
+      }
+      GeneratedCurl curl =
+          new GeneratedCurl(
+              command,
+              options,
+              stacktrace,
+              exchange,
+              snapshot.getThread(),
+              snapshot.getTimestampMillis());
+      // A disabled handler relying on default handle(GeneratedCurl) would serialize in vain
+      for (CurlHandler handler : handlers) {
+        if (handler.isEnabled(options)) {
+          handler.handle(curl, options);
+        }
+      }
     } catch (Exception e) {
       log.warn("Failed to generate CURL command for HTTP request", e);
     }
   }
+
+  private void handleSummaries(List<DuplicateSuppressor.Summary> summaries) {
+    for (DuplicateSuppressor.Summary summary : summaries) {
+      String message = summary.toString();
+      for (CurlHandler handler : handlers) {
+        if (handler.isEnabled(options)) {
+          handler.handleSummary(message, options);
+        }
+      }
+    }
+  }
+
+  /**
+   * Reports repeats of commands that are no longer sent, which would otherwise wait for the next
+   * request, and closes interceptors on JVM shutdown. Interceptors are referenced weakly, so that
+   * those no longer used can be garbage-collected without being closed.
+   */
+  private static final class RepeatReporter {
+
+    private static final long PERIOD_MILLIS = 1000;
+    private static final Set<CurlGeneratingInterceptor> INTERCEPTORS =
+        Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    static {
+      ScheduledExecutorService timer =
+          Executors.newSingleThreadScheduledExecutor(
+              task -> {
+                Thread thread = new Thread(task, "curl-logger-repeats");
+                thread.setDaemon(true);
+                return thread;
+              });
+      timer.scheduleWithFixedDelay(
+          () -> forEach(CurlGeneratingInterceptor::reportExpiredRepeats),
+          PERIOD_MILLIS,
+          PERIOD_MILLIS,
+          TimeUnit.MILLISECONDS);
+      Runtime.getRuntime()
+          .addShutdownHook(
+              new Thread(
+                  () -> forEach(CurlGeneratingInterceptor::close), "curl-logger-repeats-shutdown"));
+    }
+
+    static void register(CurlGeneratingInterceptor interceptor) {
+      INTERCEPTORS.add(interceptor);
+    }
+
+    static void unregister(CurlGeneratingInterceptor interceptor) {
+      INTERCEPTORS.remove(interceptor);
+    }
+
+    private static void forEach(Consumer<CurlGeneratingInterceptor> action) {
+      List<CurlGeneratingInterceptor> interceptors;
+      synchronized (INTERCEPTORS) {
+        interceptors = new ArrayList<>(INTERCEPTORS);
+      }
+      for (CurlGeneratingInterceptor interceptor : interceptors) {
+        try {
+          action.accept(interceptor);
+        } catch (RuntimeException e) {
+          // Timer must keep running for other interceptors
+          log.warn("Failed to report repeated curl commands", e);
+        }
+      }
+    }
+  }
+
+  /** Request captured when it was sent, waiting for its response. */
+  static final class PendingExchange {
+
+    private final long startNanos = System.nanoTime();
+    private final StackTraceElement[] stacktrace;
+    private volatile RequestSnapshot snapshot;
+
+    PendingExchange(StackTraceElement[] stacktrace) {
+      this.stacktrace = stacktrace;
+    }
+
+    void setSnapshot(RequestSnapshot snapshot) {
+      this.snapshot = snapshot;
+    }
+  }
 }
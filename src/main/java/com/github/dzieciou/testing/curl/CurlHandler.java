@@ -9,4 +9,39 @@ public interface CurlHandler {
    * @param options options used to generate curl.
    */
   void handle(String curl, Options options);
+
+  /**
+   * Handle generated curl command. Override to inspect the command without serializing it, or to
+   * defer serialization until it is needed; curl expression is built at most once for all handlers
+   * and only if any of them asks for it. By default, handles the serialized curl expression.
+   *
+   * @param curl generated curl command.
+   * @param options options used to generate curl.
+   */
+  default void handle(GeneratedCurl curl, Options options) {
+    handle(curl.getMessage(), options);
+  }
+
+  /**
+   * Handle a summary of repeated curl commands that have been suppressed, e.g., "previous command
+   * repeated 312 times (GET http://localhost/status)". By default, handles it as a curl expression.
+   *
+   * @param summary summary of suppressed commands.
+   * @param options options used to generate curl.
+   */
+  default void handleSummary(String summary, Options options) {
+    handle(summary, options);
+  }
+
+  /**
+   * Tells whether the handler would handle a curl expression generated with given options. Curl
+   * expression is passed only to enabled handlers, and when no handler is enabled, it is not
+   * generated at all. By default, a handler is always enabled.
+   *
+   * @param options options used to generate curl.
+   * @return {@code false} if the handler would ignore a curl expression.
+   */
+  default boolean isEnabled(Options options) {
+    return true;
+  }
 }
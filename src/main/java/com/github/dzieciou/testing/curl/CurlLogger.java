@@ -29,4 +29,22 @@ public class CurlLogger implements CurlHandler {
         throw new IllegalArgumentException("Unknown log level: " + options.logLevel());
     }
   }
+
+  @Override
+  public boolean isEnabled(Options options) {
+    switch (options.logLevel()) {
+      case DEBUG:
+        return log.isDebugEnabled();
+      case ERROR:
+        return log.isErrorEnabled();
+      case INFO:
+        return log.isInfoEnabled();
+      case TRACE:
+        return log.isTraceEnabled();
+      case WARN:
+        return log.isWarnEnabled();
+      default:
+        throw new IllegalArgumentException("Unknown log level: " + options.logLevel());
+    }
+  }
 }
@@ -2,11 +2,22 @@ package com.github.dzieciou.testing.curl;
 
 import io.restassured.config.HttpClientConfig;
 import io.restassured.config.RestAssuredConfig;
-import java.lang.reflect.Field;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.List;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.params.ClientPNames;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionManagerFactory;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.impl.client.AbstractHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
 
 /**
  * Creates `RestAssuredConfig` objects that configure REST-assured to log each HTTP request as CURL
@@ -14,6 +25,9 @@ import org.apache.http.impl.client.AbstractHttpClient;
  */
 public class CurlRestAssuredConfigFactory {
 
+  private static final String MAX_CONNECTIONS_PER_ROUTE = "curl-logger.max-connections-per-route";
+  private static final int DEFAULT_MAX_PER_ROUTE = 20;
+
   /**
    * Creates a REST-assured configuration to generate curl command using default options and
    * handlers.
@@ -106,14 +120,16 @@ public class CurlRestAssuredConfigFactory {
       RestAssuredConfig config, Options options, List<CurlHandler> handlers) {
     HttpClientConfig.HttpClientFactory originalFactory = getHttpClientFactory(config);
     CurlGeneratingInterceptor interceptor = new CurlGeneratingInterceptor(options, handlers);
+    HttpClientConfig httpClientConfig =
+        options.reuseHttpClient()
+            ? config.getHttpClientConfig().reuseHttpClientInstance()
+            : config.getHttpClientConfig().dontReuseHttpClientInstance();
     return config.httpClient(
-        config
-            .getHttpClientConfig()
-            .dontReuseHttpClientInstance()
-            .httpClientFactory(new MyHttpClientFactory(originalFactory, interceptor)));
+        httpClientConfig.httpClientFactory(
+            new MyHttpClientFactory(originalFactory, interceptor, options)));
   }
 
-  private static Options getDefaultOptions() {
+  static Options getDefaultOptions() {
     return Options.builder()
         .dontLogStacktrace()
         .printSingleliner()
@@ -122,21 +138,48 @@ public class CurlRestAssuredConfigFactory {
         .build();
   }
 
-  private static List<CurlHandler> getDefaultHandlers() {
+  static List<CurlHandler> getDefaultHandlers() {
     return Collections.singletonList(new CurlLogger());
   }
 
   private static HttpClientConfig.HttpClientFactory getHttpClientFactory(RestAssuredConfig config) {
-    try {
-      Field f = HttpClientConfig.class.getDeclaredField("httpClientFactory");
-      f.setAccessible(true);
-      HttpClientConfig httpClientConfig = config.getHttpClientConfig();
-      HttpClientConfig.HttpClientFactory httpClientFactory =
-          (HttpClientConfig.HttpClientFactory) f.get(httpClientConfig);
-      f.setAccessible(false);
-      return httpClientFactory;
-    } catch (NoSuchFieldException | IllegalAccessException e) {
-      throw new RuntimeException(e);
+    HttpClientConfig httpClientConfig = config.getHttpClientConfig();
+    return FieldAccessors.getFieldValue(httpClientConfig, "httpClientFactory")
+        .map(HttpClientConfig.HttpClientFactory.class::cast)
+        // Without reuse, the config creates a new client with its factory each time
+        .orElseGet(() -> httpClientConfig.dontReuseHttpClientInstance()::httpClientInstance);
+  }
+
+  // REST-assured reads response body only when asked for it, holding pooled connection until then;
+  // once buffered, the entity is no longer streamed and HTTP client releases the connection at once
+  private static HttpResponseInterceptor bufferingEntitiesUpTo(long maxSize) {
+    return (response, context) -> {
+      HttpEntity entity = response.getEntity();
+      if (entity != null
+          && entity.isStreaming()
+          && entity.getContentLength() >= 0
+          && entity.getContentLength() <= maxSize) {
+        response.setEntity(new BufferedHttpEntity(entity));
+      }
+    };
+  }
+
+  /**
+   * Creates pooling connection manager for reused HTTP clients. HTTP client instantiates it by
+   * class name, hence it is public; it is not meant to be used directly.
+   */
+  @SuppressWarnings("deprecation")
+  public static final class PoolingConnectionManagerFactory
+      implements ClientConnectionManagerFactory {
+
+    @Override
+    public ClientConnectionManager newInstance(HttpParams params, SchemeRegistry schemeRegistry) {
+      int maxPerRoute = params.getIntParameter(MAX_CONNECTIONS_PER_ROUTE, DEFAULT_MAX_PER_ROUTE);
+      PoolingClientConnectionManager connectionManager =
+          new PoolingClientConnectionManager(schemeRegistry);
+      connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+      connectionManager.setMaxTotal(Math.max(connectionManager.getMaxTotal(), maxPerRoute));
+      return connectionManager;
     }
   }
 
@@ -144,12 +187,15 @@ public class CurlRestAssuredConfigFactory {
 
     private final HttpClientConfig.HttpClientFactory wrappedFactory;
     private final CurlGeneratingInterceptor curlGeneratingInterceptor;
+    private final Options options;
 
     public MyHttpClientFactory(
         HttpClientConfig.HttpClientFactory wrappedFactory,
-        CurlGeneratingInterceptor curlGeneratingInterceptor) {
+        CurlGeneratingInterceptor curlGeneratingInterceptor,
+        Options options) {
       this.wrappedFactory = wrappedFactory;
       this.curlGeneratingInterceptor = curlGeneratingInterceptor;
+      this.options = options;
     }
 
     @Override
@@ -157,7 +203,50 @@ public class CurlRestAssuredConfigFactory {
     public HttpClient createHttpClient() {
       final AbstractHttpClient client = (AbstractHttpClient) wrappedFactory.createHttpClient();
       client.addRequestInterceptor(curlGeneratingInterceptor);
+      if (curlGeneratingInterceptor.isLoggingConditionally()) {
+        client.addResponseInterceptor(curlGeneratingInterceptor.responseInterceptor());
+        client.setHttpRequestRetryHandler(
+            new FailureReportingRetryHandler(
+                client.getHttpRequestRetryHandler(), curlGeneratingInterceptor));
+      }
+      if (options.reuseHttpClient()) {
+        // Connection manager is created lazily, so the parameters are ignored when the wrapped
+        // factory has already given the client a connection manager of its own
+        client
+            .getParams()
+            .setParameter(
+                ClientPNames.CONNECTION_MANAGER_FACTORY_CLASS_NAME,
+                PoolingConnectionManagerFactory.class.getName())
+            .setIntParameter(MAX_CONNECTIONS_PER_ROUTE, options.maxConnectionsPerRoute());
+        if (options.maxBufferedResponseSize() > 0) {
+          client.addResponseInterceptor(bufferingEntitiesUpTo(options.maxBufferedResponseSize()));
+        }
+      }
       return client;
     }
   }
+
+  // Requests failing with an exception get no response, so the retry handler is the only place
+  // where HTTP client tells about the failure
+  private static class FailureReportingRetryHandler implements HttpRequestRetryHandler {
+
+    private final HttpRequestRetryHandler wrappedHandler;
+    private final CurlGeneratingInterceptor curlGeneratingInterceptor;
+
+    FailureReportingRetryHandler(
+        HttpRequestRetryHandler wrappedHandler,
+        CurlGeneratingInterceptor curlGeneratingInterceptor) {
+      this.wrappedHandler = wrappedHandler;
+      this.curlGeneratingInterceptor = curlGeneratingInterceptor;
+    }
+
+    @Override
+    public boolean retryRequest(IOException exception, int executionCount, HttpContext context) {
+      boolean retry = wrappedHandler.retryRequest(exception, executionCount, context);
+      if (!retry) {
+        curlGeneratingInterceptor.failed(context, exception);
+      }
+      return retry;
+    }
+  }
 }
@@ -0,0 +1,167 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Suppresses curl commands repeating within a window, counting the repeats. A window opens when a
+ * command is let through and closes after a given time or number of suppressed repeats; the next
+ * repeat is then let through again, together with a summary of the closed window.
+ *
+ * <p>Commands are told apart by their {@link CurlCommand#fingerprint() fingerprint}. Closed windows
+ * are removed at most once per window duration, either by a command offered or by {@link
+ * #expire()}, so that repeats of commands no longer sent are reported, too. Number of tracked
+ * commands is bounded: when the bound is reached, closed windows are removed at once, and if that
+ * does not help, new commands are let through without being tracked. Thread-safe.
+ */
+final class DuplicateSuppressor {
+
+  static final int MAX_TRACKED_COMMANDS = 10_000;
+
+  private final long windowNanos;
+  private final long maxRepeats;
+  private final LongSupplier clock;
+  private final ConcurrentMap<Long, Window> windows = new ConcurrentHashMap<>();
+  private final AtomicLong nextSweep;
+
+  /**
+   * @param windowNanos how long a window stays open, in nanoseconds
+   * @param maxRepeats maximum number of repeats suppressed within a window
+   * @param clock source of {@link System#nanoTime()}-like time
+   */
+  DuplicateSuppressor(long windowNanos, long maxRepeats, LongSupplier clock) {
+    this.windowNanos = windowNanos;
+    this.maxRepeats = maxRepeats;
+    this.clock = clock;
+    this.nextSweep = new AtomicLong(clock.getAsLong() + windowNanos);
+  }
+
+  /**
+   * Decides whether a command should be let through.
+   *
+   * @param command curl command
+   * @return {@code null} if the command should be suppressed; otherwise summaries of windows that
+   *     have been closed, possibly empty
+   */
+  List<Summary> offer(CurlCommand command) {
+    long now = clock.getAsLong();
+    Long fingerprint = command.fingerprint();
+    List<Summary> summaries = new ArrayList<>(0);
+    sweepIfDue(now, summaries);
+    if (!windows.containsKey(fingerprint) && windows.size() >= MAX_TRACKED_COMMANDS) {
+      sweep(now, summaries);
+      if (windows.size() >= MAX_TRACKED_COMMANDS) {
+        return summaries;
+      }
+    }
+    boolean[] suppressed = new boolean[1];
+    windows.compute(
+        fingerprint,
+        (key, window) -> {
+          if (window != null && window.isOpen(now)) {
+            window.repeats++;
+            suppressed[0] = true;
+            return window;
+          }
+          if (window != null && window.repeats > 0) {
+            summaries.add(window.summary());
+          }
+          return new Window(command, now);
+        });
+    return suppressed[0] ? null : summaries;
+  }
+
+  /**
+   * Removes closed windows, unless they have been removed within the last window duration.
+   *
+   * @return summaries of closed windows with suppressed repeats
+   */
+  List<Summary> expire() {
+    List<Summary> summaries = new ArrayList<>(0);
+    sweepIfDue(clock.getAsLong(), summaries);
+    return summaries;
+  }
+
+  /**
+   * Closes all windows.
+   *
+   * @return summaries of windows with suppressed repeats
+   */
+  List<Summary> flush() {
+    List<Summary> summaries = new ArrayList<>();
+    sweep(Long.MAX_VALUE, summaries);
+    return summaries;
+  }
+
+  private void sweepIfDue(long now, List<Summary> summaries) {
+    long due = nextSweep.get();
+    if (now - due >= 0 && nextSweep.compareAndSet(due, now + windowNanos)) {
+      sweep(now, summaries);
+    }
+  }
+
+  private void sweep(long now, List<Summary> summaries) {
+    Iterator<Map.Entry<Long, Window>> it = windows.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<Long, Window> entry = it.next();
+      Window window = entry.getValue();
+      if ((now == Long.MAX_VALUE || !window.isOpen(now))
+          && windows.remove(entry.getKey(), window)) {
+        if (window.repeats > 0) {
+          summaries.add(window.summary());
+        }
+      }
+    }
+  }
+
+  private final class Window {
+
+    private final String method;
+    private final String url;
+    private final long start;
+    private long repeats;
+
+    Window(CurlCommand command, long start) {
+      this.method = command.getMethod();
+      this.url = command.getUrl();
+      this.start = start;
+    }
+
+    boolean isOpen(long now) {
+      return now - start < windowNanos && repeats < maxRepeats;
+    }
+
+    Summary summary() {
+      return new Summary(method, url, repeats);
+    }
+  }
+
+  /** Number of times a command has been suppressed. */
+  static final class Summary {
+
+    private final String method;
+    private final String url;
+    private final long repeats;
+
+    Summary(String method, String url, long repeats) {
+      this.method = method;
+      this.url = url;
+      this.repeats = repeats;
+    }
+
+    long getRepeats() {
+      return repeats;
+    }
+
+    @Override
+    public String toString() {
+      return "previous command repeated " + repeats + " times (" + method + " " + url + ")";
+    }
+  }
+}
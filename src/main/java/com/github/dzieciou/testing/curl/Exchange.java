@@ -0,0 +1,48 @@
+package com.github.dzieciou.testing.curl;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.function.Predicate;
+
+/**
+ * Outcome of sending an HTTP request, used to decide whether to generate curl command for it when
+ * logging conditionally; see {@link Options.Builder#logOnlyIf(Predicate)}.
+ */
+public final class Exchange {
+
+  private final int statusCode;
+  private final Duration duration;
+  private final Throwable exception;
+
+  Exchange(int statusCode, Duration duration, Throwable exception) {
+    this.statusCode = statusCode;
+    this.duration = duration;
+    this.exception = exception;
+  }
+
+  /** Matches exchanges that ended with status code 400 or higher, or with an exception. */
+  public static Predicate<Exchange> failed() {
+    return e -> e.exception != null || e.statusCode >= 400;
+  }
+
+  /** Matches exchanges that took longer than a given threshold. */
+  public static Predicate<Exchange> slowerThan(Duration threshold) {
+    return e -> e.duration.compareTo(threshold) > 0;
+  }
+
+  /** Returns status code of the response; empty if no response has been received. */
+  public OptionalInt getStatusCode() {
+    return statusCode >= 0 ? OptionalInt.of(statusCode) : OptionalInt.empty();
+  }
+
+  /** Returns time from sending the request until the response (or failure) has been received. */
+  public Duration getDuration() {
+    return duration;
+  }
+
+  /** Returns exception that made sending the request fail. */
+  public Optional<Throwable> getException() {
+    return Optional.ofNullable(exception);
+  }
+}
@@ -0,0 +1,72 @@
+package com.github.dzieciou.testing.curl;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Field;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads private fields of third-party classes. Each field is looked up once per class and cached as
+ * a {@link MethodHandle} getter. Fields that cannot be found or accessed are cached as missing and
+ * reported once, so that a changed library version costs a single warning rather than an exception
+ * per request.
+ */
+final class FieldAccessors {
+
+  private static final Logger log = LoggerFactory.getLogger(FieldAccessors.class);
+
+  private static final ClassValue<ConcurrentMap<String, Optional<MethodHandle>>> GETTERS =
+      new ClassValue<ConcurrentMap<String, Optional<MethodHandle>>>() {
+        @Override
+        protected ConcurrentMap<String, Optional<MethodHandle>> computeValue(Class<?> type) {
+          return new ConcurrentHashMap<>();
+        }
+      };
+
+  private FieldAccessors() {}
+
+  /**
+   * Reads value of a given field, declared by the class of a given object or any of its
+   * superclasses.
+   *
+   * @param obj object to read the field of
+   * @param fieldName name of the field
+   * @return value of the field; empty if the field does not exist, cannot be accessed or is {@code
+   *     null}
+   */
+  static Optional<Object> getFieldValue(Object obj, String fieldName) {
+    Class<?> type = obj.getClass();
+    Optional<MethodHandle> getter =
+        GETTERS.get(type).computeIfAbsent(fieldName, name -> findGetter(type, name));
+    if (!getter.isPresent()) {
+      return Optional.empty();
+    }
+    try {
+      return Optional.ofNullable(getter.get().invoke(obj));
+    } catch (Throwable e) {
+      throw new IllegalStateException(
+          "Failed to read field " + fieldName + " of " + type.getName(), e);
+    }
+  }
+
+  private static Optional<MethodHandle> findGetter(Class<?> type, String fieldName) {
+    for (Class<?> c = type; c != null; c = c.getSuperclass()) {
+      try {
+        Field field = c.getDeclaredField(fieldName);
+        field.setAccessible(true);
+        return Optional.of(MethodHandles.lookup().unreflectGetter(field));
+      } catch (NoSuchFieldException e) {
+        // Look up in superclass
+      } catch (IllegalAccessException | RuntimeException e) {
+        log.warn("Cannot access field {} of {}", fieldName, c.getName(), e);
+        return Optional.empty();
+      }
+    }
+    log.warn("Cannot find field {} in {} or its superclasses", fieldName, type.getName());
+    return Optional.empty();
+  }
+}
@@ -0,0 +1,14 @@
+package com.github.dzieciou.testing.curl;
+
+/** Defines when curl commands written to a file are forced to the storage device. */
+public enum FsyncPolicy {
+
+  /** Commands are never forced; operating system writes them when it sees fit. */
+  NEVER,
+
+  /** Commands are forced once, when the file is closed. */
+  ON_CLOSE,
+
+  /** Each batch of commands is forced as soon as it is written. */
+  EVERY_BATCH
+}
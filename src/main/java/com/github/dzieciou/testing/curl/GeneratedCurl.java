@@ -0,0 +1,161 @@
+package com.github.dzieciou.testing.curl;
+
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Curl command generated for an HTTP request, as passed to {@link CurlHandler}. The command is
+ * serialized to text lazily, on first access, and at most once, however many handlers ask for it.
+ */
+public final class GeneratedCurl {
+
+  private final CurlCommand command;
+  private final Options options;
+  private final StackTraceElement[] stacktrace;
+  private final Exchange exchange;
+  private final Thread thread;
+  private final String threadName;
+  private final long timestampMillis;
+  private volatile String message;
+
+  GeneratedCurl(CurlCommand command, Options options, StackTraceElement[] stacktrace) {
+    this(command, options, stacktrace, null);
+  }
+
+  GeneratedCurl(
+      CurlCommand command, Options options, StackTraceElement[] stacktrace, Exchange exchange) {
+    this(
+        command, options, stacktrace, exchange, Thread.currentThread(), System.currentTimeMillis());
+  }
+
+  GeneratedCurl(
+      CurlCommand command,
+      Options options,
+      StackTraceElement[] stacktrace,
+      Exchange exchange,
+      Thread thread,
+      long timestampMillis) {
+    this.command = command;
+    this.options = options;
+    this.stacktrace = stacktrace;
+    this.exchange = exchange;
+    this.thread = thread;
+    this.threadName = thread.getName();
+    this.timestampMillis = timestampMillis;
+  }
+
+  /**
+   * Returns curl command, already updated with {@link Options.Builder#updateCurl}. Handlers should
+   * not modify it, as it is shared by all of them.
+   *
+   * @return curl command
+   */
+  public CurlCommand getCommand() {
+    return command;
+  }
+
+  /**
+   * Returns outcome of the request, e.g., its status code, if known. It is known only when logging
+   * conditionally (see {@link Options.Builder#logOnlyIf}), as curl command is generated after the
+   * response then.
+   *
+   * @return outcome of the request
+   */
+  public Optional<Exchange> getExchange() {
+    return Optional.ofNullable(exchange);
+  }
+
+  /**
+   * Returns name of the thread the request was sent from. It differs from the thread handling the
+   * command when processing asynchronously (see {@link Options.Builder#processAsynchronously}).
+   *
+   * @return name of the thread that sent the request
+   */
+  public String getThreadName() {
+    return threadName;
+  }
+
+  /**
+   * Returns time the request was sent. Like {@link #getThreadName()}, it is captured on the thread
+   * sending the request, not when the command is handled.
+   *
+   * @return time the request was sent
+   */
+  public Instant getTimestamp() {
+    return Instant.ofEpochMilli(timestampMillis);
+  }
+
+  long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /** Returns thread the request was sent from. */
+  Thread getThread() {
+    return thread;
+  }
+
+  /**
+   * Returns curl command serialized according to options, followed by a stack trace of the place
+   * the request was sent from if {@link Options#canLogStacktrace()}. With {@link
+   * Options#stacktraceDictionary()}, a stack trace already printed is referred to by its id.
+   *
+   * @return message with curl command
+   */
+  public String getMessage() {
+    String result = message;
+    if (result == null) {
+      synchronized (this) {
+        result = message;
+        if (result == null) {
+          result = message = buildMessage();
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns supplier of {@link #getMessage()}, e.g., to pass it to a logging API that evaluates
+   * message only when it is needed.
+   *
+   * @return supplier of message with curl command
+   */
+  public Supplier<String> messageSupplier() {
+    return this::getMessage;
+  }
+
+  /** Estimates number of bytes of heap retained by the command and its stack trace. */
+  long estimateRetainedSize() {
+    long size = 64 + command.estimateRetainedSize();
+    // Stack frames are mostly shared with other captures, only the array and its frames count
+    return stacktrace != null ? size + 16 + 40L * stacktrace.length : size;
+  }
+
+  @Override
+  public String toString() {
+    return getMessage();
+  }
+
+  private String buildMessage() {
+    String curl =
+        command.asString(
+            options.getTargetPlatform(),
+            options.useShortForm(),
+            options.printMultiliner(),
+            options.escapeNonAscii());
+    if (stacktrace == null) {
+      return curl;
+    }
+    StringBuilder sb = new StringBuilder(curl);
+    Optional<StackTraceDictionary> dictionary = options.stacktraceDictionary();
+    if (dictionary.isPresent()) {
+      sb.append(String.format("%n\tgenerated "));
+      dictionary.get().writeTo(sb, stacktrace);
+    } else {
+      sb.append(String.format("%n\tgenerated%n"));
+      StackTraceDictionary.appendFrames(sb, stacktrace);
+    }
+    return sb.toString();
+  }
+}
@@ -34,31 +34,29 @@ package com.github.dzieciou.testing.curl;
 import io.restassured.internal.multipart.RestAssuredMultiPartEntity;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.lang.reflect.Field;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
-import java.util.ArrayList;
+import java.nio.charset.Charset;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.Arrays;
-import java.util.Base64;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
-import java.util.Set;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpEntityEnclosingRequest;
 import org.apache.http.HttpRequest;
 import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.entity.ContentType;
 import org.apache.http.entity.mime.FormBodyPart;
-import org.apache.http.entity.mime.MultipartEntityBuilder;
 import org.apache.http.entity.mime.content.ContentBody;
 import org.apache.http.impl.client.RequestWrapper;
-import org.apache.http.message.BasicHeader;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.protocol.HTTP;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -82,11 +80,33 @@ public class Http2Curl {
   }
 
   private static String removeQuotes(String s) {
-    return s.replaceAll("^\"|\"$", "");
+    int begin = s.startsWith("\"") ? 1 : 0;
+    int end = s.length() > begin && s.endsWith("\"") ? s.length() - 1 : s.length();
+    return s.substring(begin, end);
   }
 
-  private static boolean isBasicAuthentication(Header h) {
-    return h.getName().equals("Authorization") && h.getValue().startsWith("Basic");
+  // Collapses each "//" into "/", unless it directly follows "http:" or "https:"
+  private static String collapseDoubleSlashes(String s) {
+    StringBuilder sb = null;
+    int copiedUntil = 0;
+    int i = 0;
+    while (i < s.length() - 1) {
+      if (s.charAt(i) == '/' && s.charAt(i + 1) == '/' && !followsScheme(s, i)) {
+        if (sb == null) {
+          sb = new StringBuilder(s.length());
+        }
+        sb.append(s, copiedUntil, i + 1);
+        i += 2;
+        copiedUntil = i;
+      } else {
+        i++;
+      }
+    }
+    return sb == null ? s : sb.append(s, copiedUntil, s.length()).toString();
+  }
+
+  private static boolean followsScheme(String s, int index) {
+    return s.regionMatches(index - 5, "http:", 0, 5) || s.regionMatches(index - 6, "https:", 0, 6);
   }
 
   @SuppressWarnings("deprecation")
@@ -100,12 +120,17 @@ public class Http2Curl {
     }
   }
 
-  private static String getHost(HttpRequest request) {
-    return tryGetHeaderValue(Arrays.asList(request.getAllHeaders()), "Host")
-        .orElseGet(() -> URI.create(getOriginalRequestUri(request)).getHost());
+  private static String getHost(HttpRequest request, ClassifiedHeaders headers) {
+    return headers.getHost() != null
+        ? headers.getHost()
+        : URI.create(getOriginalRequestUri(request)).getHost();
   }
 
   private static boolean isValidUrl(String url) {
+    if (!hasProtocol(url)) {
+      // Most often a path relative to the route, which URL would reject with an exception
+      return false;
+    }
     try {
       new URL(url);
       return true;
@@ -114,31 +139,32 @@ public class Http2Curl {
     }
   }
 
-  private static Optional<String> tryGetHeaderValue(List<Header> headers, String headerName) {
-    return headers.stream()
-        .filter(h -> h.getName().equals(headerName))
-        .map(Header::getValue)
-        .findFirst();
-  }
-
-  private static <T> Object getFieldValue(T obj, String fieldName)
-      throws NoSuchFieldException, IllegalAccessException {
-    Field f = getField(obj.getClass(), fieldName);
-    f.setAccessible(true);
-    return f.get(obj);
-  }
-
-  private static Field getField(Class clazz, String fieldName) throws NoSuchFieldException {
-    try {
-      return clazz.getDeclaredField(fieldName);
-    } catch (NoSuchFieldException e) {
-      Class superClass = clazz.getSuperclass();
-      if (superClass == null) {
-        throw e;
-      } else {
-        return getField(superClass, fieldName);
+  // Mirrors how URL(String) finds protocol; without one, the constructor always fails
+  private static boolean hasProtocol(String url) {
+    int start = 0;
+    int limit = url.length();
+    while (limit > 0 && url.charAt(limit - 1) <= ' ') {
+      limit--;
+    }
+    while (start < limit && url.charAt(start) <= ' ') {
+      start++;
+    }
+    if (url.regionMatches(true, start, "url:", 0, 4)) {
+      start += 4;
+    }
+    if (start >= limit || !Character.isLetter(url.charAt(start))) {
+      return false;
+    }
+    for (int i = start + 1; i < limit; i++) {
+      char c = url.charAt(i);
+      if (c == ':') {
+        return true;
+      }
+      if (!Character.isLetterOrDigit(c) && c != '.' && c != '+' && c != '-') {
+        return false;
       }
     }
+    return false;
   }
 
   /**
@@ -149,54 +175,118 @@ public class Http2Curl {
    * @throws Exception if failed to generate CURL command
    */
   public String generateCurl(HttpRequest request) throws Exception {
+    return generateCurl(snapshot(request));
+  }
 
-    CurlCommand curl = http2curl(request);
-    options.getCurlUpdater().ifPresent(updater -> updater.accept(curl));
-    return curl.asString(
-        options.getTargetPlatform(),
-        options.useShortForm(),
-        options.printMultiliner(),
-        options.escapeNonAscii());
+  /**
+   * Generates CURL command for a previously taken snapshot of HTTP request.
+   *
+   * @param snapshot snapshot of HTTP request
+   * @return CURL command
+   * @throws Exception if failed to generate CURL command
+   */
+  String generateCurl(RequestSnapshot snapshot) throws Exception {
+    return generateCurlCommand(snapshot)
+        .asString(
+            options.getTargetPlatform(),
+            options.useShortForm(),
+            options.printMultiliner(),
+            options.escapeNonAscii());
   }
 
-  private static class Headers {
+  /**
+   * Builds CURL command, not yet serialized, for a previously taken snapshot of HTTP request.
+   *
+   * @param snapshot snapshot of HTTP request
+   * @return CURL command, updated with {@link Options#getCurlUpdater()}
+   */
+  CurlCommand generateCurlCommand(RequestSnapshot snapshot) {
+    CurlCommand curl = http2curl(snapshot);
+    options.getCurlUpdater().ifPresent(updater -> updater.accept(curl));
+    return curl;
+  }
 
-    List<Header> toProcess;
-    Set<String> ignored;
+  /**
+   * Copies data needed to generate CURL command from a given HTTP request, consuming its entity if
+   * present.
+   *
+   * @param request HTTP request
+   * @return immutable snapshot of the request
+   * @throws IOException if failed to read the request entity
+   */
+  RequestSnapshot snapshot(HttpRequest request) throws IOException {
+    return takeSnapshot(request, null);
+  }
 
-    public Headers(List<Header> toProcess) {
-      this.toProcess = toProcess;
-      this.ignored = new HashSet<>();
+  /**
+   * Copies data needed to generate CURL command from a given HTTP request and passes it to a given
+   * consumer. Repeatable entities are read right away. Non-repeatable entities are not read, but
+   * replaced with a wrapper capturing their content while the request is being sent; the consumer
+   * is then called once the entity has been written in whole, and never if writing it fails.
+   *
+   * @param request HTTP request
+   * @param consumer consumer of the snapshot
+   * @throws IOException if failed to read the request entity
+   */
+  void snapshot(HttpRequest request, Consumer<RequestSnapshot> consumer) throws IOException {
+    RequestSnapshot snapshot = takeSnapshot(request, consumer);
+    if (snapshot != null) {
+      consumer.accept(snapshot);
     }
   }
 
-  private CurlCommand http2curl(HttpRequest request) throws IOException {
+  private RequestSnapshot takeSnapshot(HttpRequest request, Consumer<RequestSnapshot> onSent)
+      throws IOException {
 
-    Headers headers = new Headers(Arrays.asList(request.getAllHeaders()));
-    CurlCommand curl = new CurlCommand();
-
-    String inferredUri = inferUri(request);
-    curl.setUrl(inferredUri);
+    ClassifiedHeaders headers = ClassifiedHeaders.classify(request.getAllHeaders());
+    String method = request.getRequestLine().getMethod();
+    String inferredUri = inferUri(request, headers);
 
     if (request instanceof HttpEntityEnclosingRequest) {
       HttpEntityEnclosingRequest requestWithEntity = (HttpEntityEnclosingRequest) request;
       try {
         HttpEntity entity = requestWithEntity.getEntity();
         if (entity != null) {
-          Optional<String> maybeRequestContentType =
-              tryGetHeaderValue(headers.toProcess, "Content-Type");
-          String contentType =
-              maybeRequestContentType.orElseThrow(
-                  () -> new IllegalStateException("Missing Content-Type header"));
-          handleEntity(entity, contentType, headers, curl);
+          String contentType = getContentType(headers);
+          if (isMultipart(getMimeType(contentType))) {
+            return RequestSnapshot.withFormParts(
+                method, inferredUri, headers, getFormParts(entity));
+          }
+          if (onSent != null && !entity.isRepeatable()) {
+            requestWithEntity.setEntity(
+                new CapturingEntity(
+                    entity,
+                    new CapturedBody.Sink(getCharset(entity), entity.getContentLength(), options),
+                    body ->
+                        onSent.accept(
+                            RequestSnapshot.withBody(method, inferredUri, headers, body))));
+            return null;
+          }
+          return RequestSnapshot.withBody(method, inferredUri, headers, readBody(entity));
         }
       } catch (IOException e) {
         log.error("Failed to consume form data (entity) from HTTP request", e);
         throw e;
       }
     }
+    return RequestSnapshot.withoutEntity(method, inferredUri, headers);
+  }
+
+  private CurlCommand http2curl(RequestSnapshot snapshot) {
+
+    ClassifiedHeaders headers = snapshot.getHeaders();
+    CurlCommand curl = new CurlCommand();
 
-    String requestMethod = request.getRequestLine().getMethod();
+    curl.setUrl(snapshot.getUrl());
+
+    String mimeType = null;
+    if (snapshot.hasEntity()) {
+      mimeType = getMimeType(getContentType(headers));
+      handleEntity(snapshot, mimeType, curl);
+    }
+
+    String requestMethod = snapshot.getMethod();
+    curl.setRequestMethod(requestMethod);
     if (options.alwaysPrintMethod()) {
       curl.setMethod(requestMethod);
     } else {
@@ -209,25 +299,19 @@ public class Http2Curl {
       }
     }
 
-    headers.toProcess = handleAuthenticationHeader(headers.toProcess, curl);
-
-    List<Header> cookiesHeaders =
-        headers.toProcess.stream()
-            .filter(h -> h.getName().equals("Cookie"))
-            .collect(Collectors.toList());
-    if (cookiesHeaders.size() == 1) {
-      curl.setCookieHeader(cookiesHeaders.get(0).getValue());
-      headers.toProcess =
-          headers.toProcess.stream()
-              .filter(h -> !h.getName().equals("Cookie"))
-              .collect(Collectors.toList());
-    } else if (cookiesHeaders.size() > 1) {
+    if (headers.hasBasicAuthentication()) {
+      curl.setServerAuthentication(headers.getUser(), headers.getPassword());
+    }
+
+    if (headers.getCookieCount() == 1) {
+      curl.setCookieHeader(headers.getCookie());
+    } else if (headers.getCookieCount() > 1) {
       // RFC 6265: When the user agent generates an HTTP request, the user agent MUST NOT attach
       // more than one Cookie header field.
       log.warn("More than one Cookie header in HTTP Request not allowed by RFC 6265");
     }
 
-    handleNotIgnoredHeaders(headers, curl);
+    handlePassthroughHeaders(headers, snapshot.hasEntity(), mimeType, curl);
 
     curl.setCompressed(true);
     curl.setInsecure(true);
@@ -235,41 +319,90 @@ public class Http2Curl {
     return curl;
   }
 
-  // The method updates headers and curl arguments
-  private void handleEntity(
-      HttpEntity entity, String contentType, Headers headers, CurlCommand curl) throws IOException {
-
-    List<String> parameters = Arrays.asList(contentType.split(";"));
-    parameters = parameters.stream().map(String::trim).collect(Collectors.toList());
-    contentType = parameters.remove(0);
-
-    headers.ignored.add("Content-Length");
-
-    switch (contentType) {
-      case "multipart/form-data":
-        headers.ignored.add("Content-Type"); // let curl command decide
-        handleMultipartEntity(entity, curl);
-        break;
-      case "multipart/mixed":
-        // Removing header
-        headers.toProcess = filterOutHeader(headers.toProcess, "Content-Type");
-        headers.toProcess.add(new BasicHeader("Content-Type", "multipart/mixed"));
-        handleMultipartEntity(entity, curl);
-        break;
-      default:
-        String data = EntityUtils.toString(entity);
-        curl.addDataBinary(data);
+  private static String getContentType(ClassifiedHeaders headers) {
+    String contentType = headers.getContentType();
+    if (contentType == null) {
+      throw new IllegalStateException("Missing Content-Type header");
     }
+    return contentType;
   }
 
-  private List<Header> filterOutHeader(List<Header> headers, String name) {
-    return headers.stream().filter(h -> !h.getName().equals(name)).collect(Collectors.toList());
+  private void handleEntity(RequestSnapshot snapshot, String mimeType, CurlCommand curl) {
+    if (isMultipart(mimeType)) {
+      snapshot.getFormParts().forEach(p -> curl.addFormPart(p.getName(), p.getContent()));
+      return;
+    }
+    CapturedBody body = snapshot.getBody();
+    if (body == null) {
+      // entity without content
+    } else if (body.getFile() != null) {
+      curl.addDataBinaryFromFile(body.getFile().toString());
+    } else if (options.printBodyAsBytes()) {
+      curl.addDataBinary(body.toBytes(), body.getCharset());
+    } else {
+      curl.addDataBinary(body.toText());
+    }
+  }
+
+  private void handlePassthroughHeaders(
+      ClassifiedHeaders headers, boolean hasEntity, String mimeType, CurlCommand curl) {
+    // Content type of multipart/form-data is left to curl, as it sets the boundary itself
+    boolean skipContentType = isMultipart(mimeType);
+    List<Header> all = headers.getAll();
+    for (int i = 0; i < all.size(); i++) {
+      Header h = all.get(i);
+      String name = h.getName();
+      if (!headers.isPassthrough(i)
+          || (hasEntity && name.equals("Content-Length"))
+          || (skipContentType && name.equals("Content-Type"))) {
+        continue;
+      }
+      curl.addHeader(name, h.getValue());
+    }
+    if ("multipart/mixed".equals(mimeType)) {
+      curl.addHeader("Content-Type", "multipart/mixed");
+    }
+  }
+
+  private CapturedBody readBody(HttpEntity entity) throws IOException {
+    Charset charset = getCharset(entity);
+    try (InputStream in = entity.getContent()) {
+      return in != null ? CapturedBody.read(in, charset, entity.getContentLength(), options) : null;
+    }
   }
 
-  private String inferUri(HttpRequest request) {
+  private static String getMimeType(String contentType) {
+    int separator = contentType.indexOf(';');
+    return (separator < 0 ? contentType : contentType.substring(0, separator)).trim();
+  }
+
+  private static boolean isMultipart(String mimeType) {
+    return "multipart/form-data".equals(mimeType) || "multipart/mixed".equals(mimeType);
+  }
+
+  // Mirrors charset resolution of EntityUtils.toString(HttpEntity)
+  private static Charset getCharset(HttpEntity entity) throws UnsupportedEncodingException {
+    ContentType contentType;
+    try {
+      contentType = ContentType.get(entity);
+    } catch (UnsupportedCharsetException e) {
+      throw new UnsupportedEncodingException(e.getMessage());
+    }
+    Charset charset = null;
+    if (contentType != null) {
+      charset = contentType.getCharset();
+      if (charset == null) {
+        ContentType defaultContentType = ContentType.getByMimeType(contentType.getMimeType());
+        charset = defaultContentType != null ? defaultContentType.getCharset() : null;
+      }
+    }
+    return charset != null ? charset : HTTP.DEF_CONTENT_CHARSET;
+  }
+
+  private String inferUri(HttpRequest request, ClassifiedHeaders headers) {
     String inferredUri = request.getRequestLine().getUri();
     if (!isValidUrl(inferredUri)) { // Missing schema and domain name
-      String host = getHost(request);
+      String host = getHost(request, headers);
       String inferredScheme = "http";
       if (host.endsWith(":443")) {
         inferredScheme = "https";
@@ -282,34 +415,27 @@ public class Http2Curl {
       }
 
       if ("CONNECT".equals(request.getRequestLine().getMethod())) {
-        inferredUri = String.format("%s://%s", inferredScheme, host);
+        inferredUri = inferredScheme + "://" + host;
       } else {
-        inferredUri =
-            String.format("%s://%s/%s", inferredScheme, host, inferredUri)
-                .replaceAll("(?<!http(s)?:)//", "/");
+        inferredUri = collapseDoubleSlashes(inferredScheme + "://" + host + "/" + inferredUri);
       }
     }
     return inferredUri;
   }
 
-  private void handleMultipartEntity(HttpEntity entity, CurlCommand curl) {
-    try {
-      HttpEntity wrappedEntity = (HttpEntity) getFieldValue(entity, "wrappedEntity");
-      RestAssuredMultiPartEntity multiPartEntity = (RestAssuredMultiPartEntity) wrappedEntity;
-      MultipartEntityBuilder multipartEntityBuilder =
-          (MultipartEntityBuilder) getFieldValue(multiPartEntity, "builder");
-
-      @SuppressWarnings("unchecked")
-      List<FormBodyPart> bodyParts =
-          (List<FormBodyPart>) getFieldValue(multipartEntityBuilder, "bodyParts");
-
-      bodyParts.forEach(p -> handlePart(p, curl));
-    } catch (NoSuchFieldException | IllegalAccessException e) {
-      throw new RuntimeException(e);
-    }
+  @SuppressWarnings("unchecked")
+  private List<CurlCommand.FormPart> getFormParts(HttpEntity entity) {
+    List<FormBodyPart> bodyParts =
+        FieldAccessors.getFieldValue(entity, "wrappedEntity")
+            .filter(RestAssuredMultiPartEntity.class::isInstance)
+            .flatMap(multiPartEntity -> FieldAccessors.getFieldValue(multiPartEntity, "builder"))
+            .flatMap(builder -> FieldAccessors.getFieldValue(builder, "bodyParts"))
+            .map(parts -> (List<FormBodyPart>) parts)
+            .orElse(Collections.emptyList());
+    return bodyParts.stream().map(this::toFormPart).collect(Collectors.toList());
   }
 
-  private void handlePart(FormBodyPart bodyPart, CurlCommand curl) {
+  private CurlCommand.FormPart toFormPart(FormBodyPart bodyPart) {
     String contentDisposition =
         bodyPart.getHeader().getFields().stream()
             .filter(f -> f.getName().equals("Content-Disposition"))
@@ -339,38 +465,10 @@ public class Http2Curl {
       }
       partContent.append(";type=").append(bodyPart.getHeader().getField("Content-Type").getBody());
 
-      curl.addFormPart(partName, partContent.toString());
+      return new CurlCommand.FormPart(partName, partContent.toString());
 
     } else {
       throw new RuntimeException("Unsupported type " + map.entrySet().stream().findFirst().get());
     }
   }
-
-  private void handleNotIgnoredHeaders(Headers headers, CurlCommand curl) {
-    headers.toProcess.stream()
-        .filter(h -> !headers.ignored.contains(h.getName()))
-        .forEach(h -> curl.addHeader(h.getName(), h.getValue()));
-  }
-
-  private List<Header> handleAuthenticationHeader(List<Header> headers, CurlCommand curl) {
-
-    List<Header> remainingHeaders = new ArrayList<>(headers);
-    Iterator<Header> it = remainingHeaders.iterator();
-    while (it.hasNext()) {
-      Header h = it.next();
-      if (isBasicAuthentication(h)) {
-        try {
-          String credentials = h.getValue().replaceAll("Basic ", "");
-          String decodedCredentials = new String(Base64.getDecoder().decode(credentials));
-          String[] userAndPassword = decodedCredentials.split(":", -1);
-          curl.setServerAuthentication(userAndPassword[0], userAndPassword[1]);
-          it.remove();
-          break; // There can be only one authentication headers
-        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
-          log.warn("This is not valid Basic authentication header: {}", h.getValue());
-        }
-      }
-    }
-    return remainingHeaders;
-  }
 }
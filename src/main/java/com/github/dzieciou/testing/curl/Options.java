@@ -1,12 +1,23 @@
 package com.github.dzieciou.testing.curl;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 import org.slf4j.event.Level;
 
 public class Options {
 
   private boolean logStacktrace;
+  private int stacktraceMaxDepth = Integer.MAX_VALUE;
+  private boolean skipInternalStackFrames;
+  private List<String> stackFramePackages = Collections.emptyList();
+  private StackTraceDictionary stacktraceDictionary;
   private boolean printMultiliner;
   private boolean useShortForm;
   private Level logLevel = Level.DEBUG;
@@ -14,6 +25,21 @@ public class Options {
   private Platform targetPlatform = Platform.RECOGNIZE_AUTOMATICALLY;
   private boolean escapeNonAscii;
   private boolean alwaysPrintMethod;
+  private boolean printBodyAsBytes;
+  private long maxInlineBodySize = Long.MAX_VALUE;
+  private OversizedBodyPolicy oversizedBodyPolicy = OversizedBodyPolicy.TRUNCATE;
+  private Path bodySpoolDirectory = Paths.get(System.getProperty("java.io.tmpdir"));
+  private boolean processAsynchronously;
+  private int asyncQueueCapacity = 1024;
+  private int asyncWorkerThreads = 1;
+  private OverflowPolicy asyncOverflowPolicy = OverflowPolicy.DROP_NEWEST;
+  private boolean reuseHttpClient;
+  private int maxConnectionsPerRoute = 20;
+  private long maxBufferedResponseSize;
+  private SamplingPolicy samplingPolicy = SamplingPolicy.all();
+  private Duration duplicateWindow;
+  private long maxSuppressedDuplicates = Long.MAX_VALUE;
+  private Predicate<Exchange> exchangeCondition;
 
   private Options() {}
 
@@ -25,6 +51,22 @@ public class Options {
     return logStacktrace;
   }
 
+  public int stacktraceMaxDepth() {
+    return stacktraceMaxDepth;
+  }
+
+  public boolean skipInternalStackFrames() {
+    return skipInternalStackFrames;
+  }
+
+  public List<String> stackFramePackages() {
+    return stackFramePackages;
+  }
+
+  public Optional<StackTraceDictionary> stacktraceDictionary() {
+    return Optional.ofNullable(stacktraceDictionary);
+  }
+
   public boolean printMultiliner() {
     return printMultiliner;
   }
@@ -53,6 +95,70 @@ public class Options {
     return alwaysPrintMethod;
   }
 
+  public boolean printBodyAsBytes() {
+    return printBodyAsBytes;
+  }
+
+  public long maxInlineBodySize() {
+    return maxInlineBodySize;
+  }
+
+  public OversizedBodyPolicy oversizedBodyPolicy() {
+    return oversizedBodyPolicy;
+  }
+
+  public Path bodySpoolDirectory() {
+    return bodySpoolDirectory;
+  }
+
+  public boolean processAsynchronously() {
+    return processAsynchronously;
+  }
+
+  public int asyncQueueCapacity() {
+    return asyncQueueCapacity;
+  }
+
+  public int asyncWorkerThreads() {
+    return asyncWorkerThreads;
+  }
+
+  public OverflowPolicy asyncOverflowPolicy() {
+    return asyncOverflowPolicy;
+  }
+
+  public boolean reuseHttpClient() {
+    return reuseHttpClient;
+  }
+
+  public int maxConnectionsPerRoute() {
+    return maxConnectionsPerRoute;
+  }
+
+  public long maxBufferedResponseSize() {
+    return maxBufferedResponseSize;
+  }
+
+  public SamplingPolicy samplingPolicy() {
+    return samplingPolicy;
+  }
+
+  public boolean suppressDuplicates() {
+    return duplicateWindow != null;
+  }
+
+  public Duration duplicateWindow() {
+    return duplicateWindow;
+  }
+
+  public long maxSuppressedDuplicates() {
+    return maxSuppressedDuplicates;
+  }
+
+  public Optional<Predicate<Exchange>> getExchangeCondition() {
+    return Optional.ofNullable(exchangeCondition);
+  }
+
   public static class Builder {
 
     private final Options options = new Options();
@@ -69,6 +175,51 @@ public class Options {
       return this;
     }
 
+    /** Limits number of stack frames printed. By default, all frames are printed. */
+    public Builder stacktraceMaxDepth(int stacktraceMaxDepth) {
+      if (stacktraceMaxDepth < 1) {
+        throw new IllegalArgumentException(
+            "Stacktrace depth must be positive: " + stacktraceMaxDepth);
+      }
+      options.stacktraceMaxDepth = stacktraceMaxDepth;
+      return this;
+    }
+
+    /**
+     * Configures the library to leave out of the stacktrace frames of HTTP client, REST-assured,
+     * Groovy runtime and reflection, so that the frames of code sending the request stand out.
+     */
+    public Builder skipInternalStackFrames() {
+      options.skipInternalStackFrames = true;
+      return this;
+    }
+
+    /** Configures the library to print all stack frames. This is the default. */
+    public Builder keepInternalStackFrames() {
+      options.skipInternalStackFrames = false;
+      return this;
+    }
+
+    /**
+     * Configures the library to print only stack frames of classes from given packages (or their
+     * subpackages), e.g., of your tests.
+     */
+    public Builder onlyStackFramesFrom(String... packagePrefixes) {
+      options.stackFramePackages =
+          Collections.unmodifiableList(Arrays.asList(packagePrefixes.clone()));
+      return this;
+    }
+
+    /**
+     * Configures the library to print each distinct stacktrace in full only once and refer to it by
+     * id, as {@code stack#<id>}, afterwards. Printed stacktraces can be dumped from the dictionary
+     * at any time.
+     */
+    public Builder internStacktraces(StackTraceDictionary dictionary) {
+      options.stacktraceDictionary = dictionary;
+      return this;
+    }
+
     /** Configures the library to print a curl command in multiple lines. */
     public Builder printMultiliner() {
       options.printMultiliner = true;
@@ -135,6 +286,209 @@ public class Options {
       return this;
     }
 
+    /**
+     * Configures the library to keep request body as raw bytes instead of decoding it to text and
+     * escape each non-ASCII byte separately. This way curl sends exactly the same bytes, whatever
+     * the charset of the body, including binary bodies. Applies to POSIX platforms with non-ASCII
+     * characters escaping enabled only.
+     */
+    public Builder printBodyAsBytes() {
+      options.printBodyAsBytes = true;
+      return this;
+    }
+
+    /** Configures the library to decode request body with its charset and print it as text. */
+    public Builder printBodyAsText() {
+      options.printBodyAsBytes = false;
+      return this;
+    }
+
+    /**
+     * Limits size of request body (in bytes) printed in curl command. What happens to bodies over
+     * the limit is defined by {@link #truncateOversizedBody()} and {@link
+     * #spoolOversizedBody(Path)}. By default, there is no limit.
+     */
+    public Builder maxInlineBodySize(long maxInlineBodySize) {
+      if (maxInlineBodySize < 0) {
+        throw new IllegalArgumentException(
+            "Size of request body must not be negative: " + maxInlineBodySize);
+      }
+      options.maxInlineBodySize = maxInlineBodySize;
+      return this;
+    }
+
+    /**
+     * Configures the library to cut request body exceeding {@link #maxInlineBodySize(long)} and
+     * mark it with total size and SHA-256 digest of the body. This is the default.
+     */
+    public Builder truncateOversizedBody() {
+      options.oversizedBodyPolicy = OversizedBodyPolicy.TRUNCATE;
+      return this;
+    }
+
+    /**
+     * Configures the library to stream request body exceeding {@link #maxInlineBodySize(long)} to a
+     * new file in a given directory and refer to it with {@code --data-binary @file}. Files are not
+     * removed by the library.
+     */
+    public Builder spoolOversizedBody(Path directory) {
+      options.oversizedBodyPolicy = OversizedBodyPolicy.SPOOL_TO_FILE;
+      options.bodySpoolDirectory = directory;
+      return this;
+    }
+
+    /**
+     * Configures the library to generate curl commands and pass them to handlers on background
+     * threads instead of on a thread sending HTTP request. Only a cheap snapshot of a request is
+     * taken on the sending thread.
+     */
+    public Builder processAsynchronously() {
+      options.processAsynchronously = true;
+      return this;
+    }
+
+    /** Configures the library to generate curl commands on a thread sending HTTP request. */
+    public Builder processSynchronously() {
+      options.processAsynchronously = false;
+      return this;
+    }
+
+    /**
+     * Limits number of requests waiting for curl generation when processing asynchronously.
+     * Defaults to 1024.
+     */
+    public Builder asyncQueueCapacity(int asyncQueueCapacity) {
+      if (asyncQueueCapacity < 1) {
+        throw new IllegalArgumentException(
+            "Queue capacity must be positive: " + asyncQueueCapacity);
+      }
+      options.asyncQueueCapacity = asyncQueueCapacity;
+      return this;
+    }
+
+    /** Sets maximum number of threads generating curl commands asynchronously. Defaults to 1. */
+    public Builder asyncWorkerThreads(int asyncWorkerThreads) {
+      if (asyncWorkerThreads < 1) {
+        throw new IllegalArgumentException(
+            "Number of worker threads must be positive: " + asyncWorkerThreads);
+      }
+      options.asyncWorkerThreads = asyncWorkerThreads;
+      return this;
+    }
+
+    /**
+     * Defines what to do when asynchronous processing cannot keep up and the queue is full.
+     * Defaults to {@link OverflowPolicy#DROP_NEWEST}.
+     */
+    public Builder asyncOverflowPolicy(OverflowPolicy asyncOverflowPolicy) {
+      options.asyncOverflowPolicy = asyncOverflowPolicy;
+      return this;
+    }
+
+    /**
+     * Configures REST-assured to reuse a single HTTP client instance, with curl generation enabled,
+     * across requests. Unless the client has been given its own connection manager, connections are
+     * kept in a pool and reused as well.
+     */
+    public Builder reuseHttpClient() {
+      options.reuseHttpClient = true;
+      return this;
+    }
+
+    /**
+     * Configures REST-assured to create a new HTTP client for each request. This is the default.
+     */
+    public Builder dontReuseHttpClient() {
+      options.reuseHttpClient = false;
+      return this;
+    }
+
+    /**
+     * Limits number of pooled connections to a single route when reusing HTTP client. Defaults to
+     * 20.
+     */
+    public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+      if (maxConnectionsPerRoute < 1) {
+        throw new IllegalArgumentException(
+            "Number of connections per route must be positive: " + maxConnectionsPerRoute);
+      }
+      options.maxConnectionsPerRoute = maxConnectionsPerRoute;
+      return this;
+    }
+
+    /**
+     * Configures reused HTTP client to read responses with declared length up to a given size (in
+     * bytes) into memory as soon as they arrive, so that their connections return to the pool even
+     * if response body is never read. Larger or chunked responses are streamed as usual and hold
+     * their connections until read. By default, no responses are buffered.
+     */
+    public Builder bufferResponsesUpTo(long maxBufferedResponseSize) {
+      if (maxBufferedResponseSize < 0) {
+        throw new IllegalArgumentException(
+            "Size of buffered responses must not be negative: " + maxBufferedResponseSize);
+      }
+      options.maxBufferedResponseSize = maxBufferedResponseSize;
+      return this;
+    }
+
+    /**
+     * Configures the library to generate curl commands only for requests chosen by a given sampling
+     * policy, e.g., {@link SamplingPolicy#oneIn(int)}. By default, all requests are sampled.
+     */
+    public Builder sample(SamplingPolicy samplingPolicy) {
+      options.samplingPolicy = samplingPolicy;
+      return this;
+    }
+
+    /**
+     * Configures the library to suppress curl commands identical to one handled within a given time
+     * window, and to report the number of suppressed repeats when the window closes.
+     */
+    public Builder suppressDuplicates(Duration window) {
+      return suppressDuplicates(window, Long.MAX_VALUE);
+    }
+
+    /**
+     * Configures the library to suppress curl commands identical to one handled within a given time
+     * window, but no more than {@code maxRepeats} of them in a row, and to report the number of
+     * suppressed repeats when the window closes.
+     */
+    public Builder suppressDuplicates(Duration window, long maxRepeats) {
+      if (window.isNegative() || window.isZero()) {
+        throw new IllegalArgumentException("Window must be positive: " + window);
+      }
+      if (maxRepeats < 1) {
+        throw new IllegalArgumentException("Number of repeats must be positive: " + maxRepeats);
+      }
+      options.duplicateWindow = window;
+      options.maxSuppressedDuplicates = maxRepeats;
+      return this;
+    }
+
+    /** Configures the library to handle every curl command, even repeated. This is the default. */
+    public Builder dontSuppressDuplicates() {
+      options.duplicateWindow = null;
+      options.maxSuppressedDuplicates = Long.MAX_VALUE;
+      return this;
+    }
+
+    /**
+     * Configures the library to generate curl command only once the response has arrived, and only
+     * if the exchange matches a given condition, e.g., {@code
+     * Exchange.failed().or(Exchange.slowerThan(Duration.ofSeconds(1)))}. Requests are still
+     * captured up front, but those not matching are never serialized.
+     */
+    public Builder logOnlyIf(Predicate<Exchange> condition) {
+      options.exchangeCondition = condition;
+      return this;
+    }
+
+    /** Configures the library to generate curl command for every request. This is the default. */
+    public Builder logAlways() {
+      options.exchangeCondition = null;
+      return this;
+    }
+
     public Options build() {
       return options;
     }
@@ -0,0 +1,51 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/** Defines what happens when the queue of asynchronously generated curl commands is full. */
+public enum OverflowPolicy {
+
+  /** Request that does not fit into the queue is not logged. */
+  DROP_NEWEST,
+
+  /** Oldest request waiting in the queue is not logged to make room for the new one. */
+  DROP_OLDEST,
+
+  /** Thread sending HTTP request waits until there is room in the queue. */
+  BLOCK;
+
+  private static final long BLOCKED_PRODUCER_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+  /**
+   * Reserves room for a new element in a bounded queue, making room according to this policy when
+   * the queue is full. A blocked thread gives up once the queue is closed or the thread is
+   * interrupted; its interrupt status is kept.
+   *
+   * @param tryReserve reserves room, or inserts the element, if the queue is not full
+   * @param dropOldest removes the oldest element from the queue, if there is any
+   * @param closed tells whether the queue has been closed
+   * @return {@code true} if room has been reserved, {@code false} if the element should be dropped
+   */
+  boolean reserve(BooleanSupplier tryReserve, Runnable dropOldest, BooleanSupplier closed) {
+    while (!tryReserve.getAsBoolean()) {
+      switch (this) {
+        case DROP_NEWEST:
+          return false;
+        case DROP_OLDEST:
+          dropOldest.run();
+          break;
+        case BLOCK:
+          if (closed.getAsBoolean() || Thread.currentThread().isInterrupted()) {
+            return false;
+          }
+          LockSupport.parkNanos(this, BLOCKED_PRODUCER_PARK_NANOS);
+          break;
+        default:
+          throw new IllegalStateException("Unknown overflow policy: " + this);
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,17 @@
+package com.github.dzieciou.testing.curl;
+
+/** Defines how to print request body exceeding {@link Options#maxInlineBodySize()}. */
+public enum OversizedBodyPolicy {
+
+  /**
+   * Body is cut at the limit and followed by a marker with its total size and SHA-256 digest, so
+   * that it can be compared with the body actually sent.
+   */
+  TRUNCATE,
+
+  /**
+   * Body is streamed to a file and referenced from curl command as {@code --data-binary @file}, so
+   * that the command stays replayable.
+   */
+  SPOOL_TO_FILE
+}
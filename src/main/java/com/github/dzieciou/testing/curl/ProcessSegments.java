@@ -0,0 +1,245 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.regex.Pattern;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Segments of a curl log written by many processes, e.g., forked test JVMs, each to its own file,
+ * so that they never contend for a lock. Segment of file {@code curl.log} written by process 1234
+ * is named {@code curl.log.1234}.
+ *
+ * <p>Each record in a segment is framed by a header line with time the command has been written, in
+ * milliseconds since epoch, and length of the command in bytes: {@code "<time> <length>\n"},
+ * followed by the command in UTF-8 and a new line. Records of a process killed while writing end
+ * with a truncated frame, which is skipped when merging and cut off before appending to the segment
+ * again. A segment malformed in any other way is kept aside when merging, so that records that
+ * cannot be read are not lost.
+ */
+final class ProcessSegments {
+
+  private static final Logger log = LoggerFactory.getLogger(ProcessSegments.class);
+
+  private static final int MAX_HEADER_LENGTH = 64;
+
+  private ProcessSegments() {}
+
+  /** Returns segment of a given file written by the current process. */
+  static Path segmentOfCurrentProcess(Path file) {
+    return file.resolveSibling(file.getFileName() + "." + currentProcessId());
+  }
+
+  // Java 8 has no portable API for process id; runtime name is "pid@host" on all common JVMs
+  private static String currentProcessId() {
+    String name = ManagementFactory.getRuntimeMXBean().getName();
+    int at = name.indexOf('@');
+    String pid = at > 0 ? name.substring(0, at) : name;
+    return pid.matches("\\d+") ? pid : String.valueOf(Math.abs(name.hashCode()));
+  }
+
+  /** Returns header of a record framing a command of a given length in bytes. */
+  static byte[] header(long timestampMillis, int length) {
+    return (timestampMillis + " " + length + "\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Returns length of a segment without a truncated frame at its end, if there is one.
+   *
+   * @param segment segment of a file
+   * @return length in bytes up to the end of the last complete record, or size of the segment if it
+   *     does not end with a truncated frame
+   * @throws IOException if the segment cannot be read
+   */
+  static long validLength(Path segment) throws IOException {
+    try (SegmentReader reader = new SegmentReader(segment, 0)) {
+      while (reader.next()) {
+        // only counting bytes of complete records
+      }
+      return reader.truncated ? reader.validLength : Files.size(segment);
+    }
+  }
+
+  /**
+   * Merges records of all segments of a given file, ordered by time, and appends them to the file
+   * as plain curl commands, each followed by a line separator. Merged segments are deleted, except
+   * for malformed ones, which are renamed with {@code .<time>.malformed} suffix, e.g., {@code
+   * curl.log.1234.1640995200000.malformed}.
+   *
+   * @param file file whose segments to merge
+   * @return number of commands merged
+   * @throws IOException if a segment cannot be read or the file cannot be written
+   */
+  static long merge(Path file) throws IOException {
+    List<Path> segments = list(file);
+    List<SegmentReader> readers = new ArrayList<>(segments.size());
+    PriorityQueue<SegmentReader> queue =
+        new PriorityQueue<>(
+            Math.max(1, segments.size()),
+            Comparator.comparingLong((SegmentReader r) -> r.timestamp)
+                .thenComparingInt(r -> r.index));
+    long merged = 0;
+    byte[] lineSeparator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    try (OutputStream out =
+        Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+      for (Path segment : segments) {
+        SegmentReader reader = new SegmentReader(segment, readers.size());
+        readers.add(reader);
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+      while (!queue.isEmpty()) {
+        SegmentReader reader = queue.poll();
+        out.write(reader.record);
+        out.write(lineSeparator);
+        merged++;
+        if (reader.next()) {
+          queue.add(reader);
+        }
+      }
+    } finally {
+      for (SegmentReader reader : readers) {
+        reader.close();
+      }
+    }
+    for (SegmentReader reader : readers) {
+      if (reader.malformed) {
+        Path kept =
+            reader.segment.resolveSibling(
+                reader.segment.getFileName() + "." + System.currentTimeMillis() + ".malformed");
+        Files.move(reader.segment, kept);
+        log.warn(
+            "Merged curl commands of {} up to a malformed one, the segment is kept as {}",
+            reader.segment,
+            kept);
+      } else {
+        if (reader.truncated) {
+          log.warn("Skipped truncated curl command at the end of {}", reader.segment);
+        }
+        Files.delete(reader.segment);
+      }
+    }
+    return merged;
+  }
+
+  private static List<Path> list(Path file) throws IOException {
+    Path absolute = file.toAbsolutePath();
+    Pattern segmentName =
+        Pattern.compile(Pattern.quote(absolute.getFileName().toString()) + "\\.\\d+");
+    List<Path> segments = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(absolute.getParent())) {
+      for (Path path : stream) {
+        if (segmentName.matcher(path.getFileName().toString()).matches()) {
+          segments.add(path);
+        }
+      }
+    }
+    Collections.sort(segments);
+    return segments;
+  }
+
+  /** Reads records of a segment one by one. */
+  private static final class SegmentReader implements Closeable {
+
+    private final Path segment;
+    private final int index;
+    private final DataInputStream in;
+    private final long size;
+    private long timestamp;
+    private byte[] record;
+    // Number of bytes of complete records read so far
+    private long validLength;
+    // Whether reading has stopped at a frame cut off by the end of segment
+    private boolean truncated;
+    // Whether reading has stopped at a frame followed by more data that could not be read
+    private boolean malformed;
+
+    SegmentReader(Path segment, int index) throws IOException {
+      this.segment = segment;
+      this.index = index;
+      this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(segment)));
+      this.size = Files.size(segment);
+    }
+
+    /**
+     * Reads next record; returns {@code false} at the end of segment or at a truncated or malformed
+     * frame.
+     */
+    boolean next() throws IOException {
+      String header = readHeader();
+      if (header == null) {
+        return false;
+      }
+      int space = header.indexOf(' ');
+      try {
+        timestamp = Long.parseLong(header.substring(0, space));
+        int length = Integer.parseInt(header.substring(space + 1));
+        if (length < 0) {
+          malformed = true;
+          return false;
+        }
+        // A corrupted length must not be allocated before it is known to fit in the segment
+        if (length > size - validLength - header.length() - 1) {
+          truncated = true;
+          return false;
+        }
+        record = new byte[length];
+        in.readFully(record);
+      } catch (EOFException e) {
+        truncated = true;
+        return false;
+      } catch (RuntimeException e) {
+        malformed = true;
+        return false;
+      }
+      int end = in.read();
+      if (end != '\n') {
+        truncated = end < 0;
+        malformed = end >= 0;
+        return false;
+      }
+      validLength += header.length() + 1 + record.length + 1;
+      return true;
+    }
+
+    private String readHeader() throws IOException {
+      ByteArrayOutputStream header = new ByteArrayOutputStream(MAX_HEADER_LENGTH);
+      int b;
+      while ((b = in.read()) != '\n') {
+        if (b < 0) {
+          truncated = header.size() > 0;
+          return null;
+        }
+        if (header.size() >= MAX_HEADER_LENGTH) {
+          malformed = true;
+          return null;
+        }
+        header.write(b);
+      }
+      return new String(header.toByteArray(), StandardCharsets.US_ASCII);
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
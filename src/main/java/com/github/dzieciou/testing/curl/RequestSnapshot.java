@@ -0,0 +1,90 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable copy of everything {@link Http2Curl} needs from an HTTP request to build a curl
+ * command. Taking a snapshot is cheap, so it can be done on the thread sending the request, while
+ * building and serializing the command can be deferred or moved to another thread.
+ */
+final class RequestSnapshot {
+
+  private final String method;
+  private final String url;
+  private final ClassifiedHeaders headers;
+  private final CapturedBody body;
+  private final List<CurlCommand.FormPart> formParts;
+  private final Thread thread = Thread.currentThread();
+  private final long timestampMillis = System.currentTimeMillis();
+
+  private RequestSnapshot(
+      String method,
+      String url,
+      ClassifiedHeaders headers,
+      CapturedBody body,
+      List<CurlCommand.FormPart> formParts) {
+    this.method = method;
+    this.url = url;
+    this.headers = headers;
+    this.body = body;
+    this.formParts = formParts;
+  }
+
+  static RequestSnapshot withoutEntity(String method, String url, ClassifiedHeaders headers) {
+    return new RequestSnapshot(method, url, headers, null, null);
+  }
+
+  static RequestSnapshot withBody(
+      String method, String url, ClassifiedHeaders headers, CapturedBody body) {
+    return new RequestSnapshot(method, url, headers, body, null);
+  }
+
+  static RequestSnapshot withFormParts(
+      String method, String url, ClassifiedHeaders headers, List<CurlCommand.FormPart> formParts) {
+    return new RequestSnapshot(method, url, headers, null, Collections.unmodifiableList(formParts));
+  }
+
+  String getMethod() {
+    return method;
+  }
+
+  /** Returns an absolute URL inferred from the request line and headers. */
+  String getUrl() {
+    return url;
+  }
+
+  ClassifiedHeaders getHeaders() {
+    return headers;
+  }
+
+  /** Returns {@code true} if the request carried an entity (either plain body or multipart). */
+  boolean hasEntity() {
+    return body != null || formParts != null;
+  }
+
+  /** Returns {@code true} if the request entity was captured as multipart form parts. */
+  boolean isMultipart() {
+    return formParts != null;
+  }
+
+  /** Returns captured body; {@code null} if there was no plain entity. */
+  CapturedBody getBody() {
+    return body;
+  }
+
+  /** Returns thread the request was sent from, i.e., the one the snapshot was taken in. */
+  Thread getThread() {
+    return thread;
+  }
+
+  /** Returns time the request was sent, i.e., the snapshot was taken, in epoch milliseconds. */
+  long getTimestampMillis() {
+    return timestampMillis;
+  }
+
+  /** Returns form parts of a multipart entity; {@code null} if the entity was not multipart. */
+  List<CurlCommand.FormPart> getFormParts() {
+    return formParts;
+  }
+}
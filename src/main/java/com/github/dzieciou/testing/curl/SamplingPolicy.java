@@ -0,0 +1,248 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Decides which requests get their curl command generated. Sampling is decided before anything is
+ * copied from a request, so requests left out cost almost nothing.
+ *
+ * <p>Per-endpoint policies identify an endpoint by HTTP method, host and path, with path segments
+ * that look like identifiers (numbers, UUIDs, long hexadecimal strings) replaced by {@code {id}}.
+ * Counters are kept per interceptor, without locks. Number of tracked endpoints is bounded; once
+ * the bound is reached, all new endpoints share a single counter.
+ */
+public abstract class SamplingPolicy {
+
+  static final int MAX_ENDPOINTS = 10_000;
+  private static final String OTHER_ENDPOINTS = "*";
+
+  private static final SamplingPolicy ALL =
+      new SamplingPolicy() {
+        @Override
+        Sampler newSampler(LongSupplier clock) {
+          return endpoint -> true;
+        }
+      };
+
+  private SamplingPolicy() {}
+
+  /** Generates curl command for every request. This is the default. */
+  public static SamplingPolicy all() {
+    return ALL;
+  }
+
+  /**
+   * Generates curl command for a request with probability {@code 1/n}.
+   *
+   * @param n how many requests, on average, per one sampled request
+   * @return sampling policy
+   */
+  public static SamplingPolicy oneIn(int n) {
+    if (n < 1) {
+      throw new IllegalArgumentException("Sampling rate must be positive: " + n);
+    }
+    return new SamplingPolicy() {
+      @Override
+      Sampler newSampler(LongSupplier clock) {
+        return endpoint -> n == 1 || ThreadLocalRandom.current().nextInt(n) == 0;
+      }
+    };
+  }
+
+  /**
+   * Generates curl command for at most {@code permitsPerSecond} requests per second to each
+   * endpoint, allowing bursts of up to {@code burst} requests.
+   *
+   * @param permitsPerSecond sustained rate of sampled requests per endpoint
+   * @param burst maximum number of requests sampled at once after a quiet period
+   * @return sampling policy
+   */
+  public static SamplingPolicy perEndpointRate(double permitsPerSecond, int burst) {
+    if (!(permitsPerSecond > 0)) {
+      throw new IllegalArgumentException("Rate must be positive: " + permitsPerSecond);
+    }
+    if (burst < 1) {
+      throw new IllegalArgumentException("Burst must be positive: " + burst);
+    }
+    long intervalNanos = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond));
+    long toleranceNanos = intervalNanos * (burst - 1);
+    return new SamplingPolicy() {
+      @Override
+      Sampler newSampler(LongSupplier clock) {
+        // Token bucket expressed as generic cell rate algorithm: each endpoint keeps only the
+        // theoretical arrival time of its next request
+        EndpointCounters arrivals = new EndpointCounters(Long.MIN_VALUE);
+        return endpoint -> {
+          AtomicLong tat = arrivals.get(endpoint.get());
+          long now = clock.getAsLong();
+          while (true) {
+            long current = tat.get();
+            long start = current == Long.MIN_VALUE || current - now < 0 ? now : current;
+            if (start - now > toleranceNanos) {
+              return false;
+            }
+            if (tat.compareAndSet(current, start + intervalNanos)) {
+              return true;
+            }
+          }
+        };
+      }
+    };
+  }
+
+  /**
+   * Generates curl command for the first {@code first} requests to each endpoint, and then for
+   * every {@code n}-th request to it.
+   *
+   * @param first number of requests to each endpoint that are all sampled
+   * @param n how many requests per one sampled request afterwards
+   * @return sampling policy
+   */
+  public static SamplingPolicy firstThenEveryNth(int first, int n) {
+    if (first < 0) {
+      throw new IllegalArgumentException("Number of first requests must not be negative: " + first);
+    }
+    if (n < 1) {
+      throw new IllegalArgumentException("Sampling rate must be positive: " + n);
+    }
+    return new SamplingPolicy() {
+      @Override
+      Sampler newSampler(LongSupplier clock) {
+        EndpointCounters counts = new EndpointCounters(0);
+        return endpoint -> {
+          long count = counts.get(endpoint.get()).getAndIncrement();
+          return count < first || (count - first) % n == n - 1;
+        };
+      }
+    };
+  }
+
+  /** Creates sampler with its own counters. */
+  Sampler newSampler() {
+    return newSampler(System::nanoTime);
+  }
+
+  abstract Sampler newSampler(LongSupplier clock);
+
+  /**
+   * Builds endpoint identifier of a request to a given URL.
+   *
+   * @param method HTTP method
+   * @param url absolute URL, or path if relative
+   * @param defaultHost host to use if URL is relative
+   * @return endpoint identifier
+   */
+  static String endpointOfUrl(String method, String url, String defaultHost) {
+    int scheme = url.indexOf("://");
+    if (scheme < 0) {
+      return endpoint(method, defaultHost, url);
+    }
+    String host = hostOf(url);
+    return endpoint(method, host, url.substring(scheme + 3 + host.length()));
+  }
+
+  /** Returns host, with port if present, of an absolute URL; empty string for relative URL. */
+  static String hostOf(String url) {
+    int scheme = url.indexOf("://");
+    if (scheme < 0) {
+      return "";
+    }
+    int hostStart = scheme + 3;
+    int hostEnd = hostStart;
+    while (hostEnd < url.length() && url.charAt(hostEnd) != '/' && url.charAt(hostEnd) != '?') {
+      hostEnd++;
+    }
+    return url.substring(hostStart, hostEnd);
+  }
+
+  /**
+   * Builds endpoint identifier of a request.
+   *
+   * @param method HTTP method
+   * @param host host, optionally with port
+   * @param path request path, optionally followed by query
+   * @return endpoint identifier
+   */
+  static String endpoint(String method, String host, String path) {
+    StringBuilder sb = new StringBuilder(method.length() + host.length() + path.length() + 2);
+    sb.append(method).append(' ').append(host);
+    int hostEnd = sb.length();
+    int end = path.indexOf('?');
+    if (end < 0) {
+      end = path.length();
+    }
+    int start = 0;
+    while (start < end) {
+      int slash = path.indexOf('/', start);
+      int segmentEnd = slash < 0 || slash > end ? end : slash;
+      if (segmentEnd > start) {
+        sb.append('/');
+        if (looksLikeId(path, start, segmentEnd)) {
+          sb.append("{id}");
+        } else {
+          sb.append(path, start, segmentEnd);
+        }
+      }
+      start = segmentEnd + 1;
+    }
+    if (sb.length() == hostEnd) {
+      sb.append('/');
+    }
+    return sb.toString();
+  }
+
+  private static boolean looksLikeId(String s, int start, int end) {
+    boolean digitsOnly = true;
+    boolean hexOrDash = true;
+    int digits = 0;
+    for (int i = start; i < end; i++) {
+      char c = s.charAt(i);
+      boolean digit = c >= '0' && c <= '9';
+      if (digit) {
+        digits++;
+      }
+      digitsOnly &= digit;
+      hexOrDash &= digit || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F') || c == '-';
+    }
+    // UUIDs and hashes have at least 16 hex digits; words made of letters a-f have no digits
+    return digitsOnly || (hexOrDash && end - start >= 16 && digits > 0);
+  }
+
+  /** Decides whether to generate curl command for a request. Thread-safe. */
+  @FunctionalInterface
+  interface Sampler {
+
+    /**
+     * Returns {@code true} if curl command should be generated for a request.
+     *
+     * @param endpoint supplies endpoint identifier of the request, if the decision depends on it
+     */
+    boolean sample(Supplier<String> endpoint);
+  }
+
+  /** Counters per endpoint, bounded in number. */
+  private static final class EndpointCounters {
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<>();
+    private final long initialValue;
+
+    EndpointCounters(long initialValue) {
+      this.initialValue = initialValue;
+    }
+
+    AtomicLong get(String endpoint) {
+      AtomicLong counter = counters.get(endpoint);
+      if (counter != null) {
+        return counter;
+      }
+      String key = counters.size() < MAX_ENDPOINTS ? endpoint : OTHER_ENDPOINTS;
+      return counters.computeIfAbsent(key, k -> new AtomicLong(initialValue));
+    }
+  }
+}
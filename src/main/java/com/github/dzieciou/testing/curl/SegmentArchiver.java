@@ -0,0 +1,188 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archives segments rolled over by {@link CurlFileWriter}: compresses them with gzip and deletes
+ * the oldest archived segments once their total size exceeds a limit. Archiving runs on a
+ * background thread, so that neither the writer thread nor threads sending requests wait for
+ * compression.
+ *
+ * <p>Rolled segment of file {@code curl.log} is named {@code curl.log.yyyyMMdd-HHmmss-NNNNNN}, with
+ * time in UTC, so that segments sort by name in the order they have been rolled.
+ */
+final class SegmentArchiver implements AutoCloseable {
+
+  private static final Logger log = LoggerFactory.getLogger(SegmentArchiver.class);
+
+  private static final String GZIP_EXTENSION = ".gz";
+  private static final int COPY_BUFFER_SIZE = 64 * 1024;
+  // UTC, so that segments sort in the order they have been rolled across daylight saving changes
+  private static final DateTimeFormatter TIMESTAMP_FORMAT =
+      DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss").withZone(ZoneOffset.UTC);
+
+  private final Path file;
+  private final Path directory;
+  private final boolean compress;
+  private final long maxArchiveBytes;
+  private final Pattern archivedName;
+  private final ExecutorService executor;
+  private long sequence;
+
+  SegmentArchiver(Path file, boolean compress, long maxArchiveBytes) {
+    this.file = file.toAbsolutePath();
+    this.directory = this.file.getParent();
+    this.compress = compress;
+    this.maxArchiveBytes = maxArchiveBytes;
+    this.archivedName =
+        Pattern.compile(
+            Pattern.quote(this.file.getFileName().toString())
+                + "\\.\\d{8}-\\d{6}-\\d{6}"
+                + (compress ? Pattern.quote(GZIP_EXTENSION) : ""));
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            60,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            task -> {
+              Thread thread = new Thread(task, "curl-file-archiver");
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+    this.executor = executor;
+  }
+
+  /**
+   * Returns a new name for a segment rolled over now. Called by the writer thread only.
+   *
+   * @return path to move the active segment to
+   */
+  Path nextSegment() {
+    String timestamp = TIMESTAMP_FORMAT.format(Instant.now());
+    Path segment;
+    do {
+      segment =
+          directory.resolve(
+              String.format("%s.%s-%06d", file.getFileName(), timestamp, sequence++ % 1_000_000));
+    } while (Files.exists(segment) || Files.exists(compressedPath(segment)));
+    return segment;
+  }
+
+  /**
+   * Schedules a rolled segment to be compressed, if enabled, and old segments to be deleted.
+   *
+   * @param segment rolled segment
+   */
+  void archive(Path segment) {
+    executor.execute(
+        () -> {
+          try {
+            if (compress) {
+              compress(segment);
+            }
+            enforceRetention();
+          } catch (IOException e) {
+            log.warn("Failed to archive curl commands: {}", segment, e);
+          }
+        });
+  }
+
+  /**
+   * Waits until all scheduled segments have been archived, as long as {@link CurlFileWriter} waits
+   * for its writer, since both may run on JVM shutdown. Segments not archived by then are left as
+   * they are.
+   */
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(CurlFileWriter.CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        int abandoned = executor.shutdownNow().size();
+        log.warn(
+            "Archiving curl commands has not finished in time, {} more segments left as they are",
+            abandoned);
+      }
+    } catch (InterruptedException e) {
+      executor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static Path compressedPath(Path segment) {
+    return segment.resolveSibling(segment.getFileName() + GZIP_EXTENSION);
+  }
+
+  private static void compress(Path segment) throws IOException {
+    Path compressed = compressedPath(segment);
+    Path temporary = segment.resolveSibling(compressed.getFileName() + ".tmp");
+    try (InputStream in = Files.newInputStream(segment);
+        OutputStream out =
+            new GZIPOutputStream(Files.newOutputStream(temporary), COPY_BUFFER_SIZE)) {
+      byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      int read;
+      while ((read = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, read);
+      }
+    }
+    // Readers never see partially compressed segment
+    Files.move(temporary, compressed, StandardCopyOption.ATOMIC_MOVE);
+    Files.delete(segment);
+  }
+
+  private void enforceRetention() throws IOException {
+    if (maxArchiveBytes == Long.MAX_VALUE) {
+      return;
+    }
+    List<Path> archived = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+      for (Path path : stream) {
+        if (archivedName.matcher(path.getFileName().toString()).matches()) {
+          archived.add(path);
+        }
+      }
+    }
+    Collections.sort(archived);
+    long total = 0;
+    long[] sizes = new long[archived.size()];
+    for (int i = 0; i < archived.size(); i++) {
+      sizes[i] = size(archived.get(i));
+      total += sizes[i];
+    }
+    for (int i = 0; i < archived.size() && total > maxArchiveBytes; i++) {
+      Files.deleteIfExists(archived.get(i));
+      total -= sizes[i];
+    }
+  }
+
+  private static long size(Path path) throws IOException {
+    try {
+      return Files.size(path);
+    } catch (NoSuchFileException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,28 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Captures stack trace of the thread sending HTTP request. On Java 9+ this class is replaced by a
+ * variant using {@code StackWalker}, which materializes only the frames that are printed.
+ */
+final class StackCapture {
+
+  private StackCapture() {}
+
+  static StackTraceElement[] capture(StackFrameFilter filter) {
+    StackTraceElement[] frames = new Throwable().getStackTrace();
+    int i = 0;
+    while (i < frames.length && StackFrameFilter.isCaptureFrame(frames[i].getClassName())) {
+      i++;
+    }
+    List<StackTraceElement> captured = new ArrayList<>();
+    for (; i < frames.length && captured.size() < filter.getMaxDepth(); i++) {
+      if (filter.accept(frames[i].getClassName())) {
+        captured.add(frames[i]);
+      }
+    }
+    return captured.toArray(new StackTraceElement[0]);
+  }
+}
@@ -0,0 +1,61 @@
+package com.github.dzieciou.testing.curl;
+
+import java.util.List;
+
+/** Decides which stack frames to print with curl command, according to options. */
+final class StackFrameFilter {
+
+  private static final String[] INTERNAL_PACKAGES = {
+    "org.apache.http.",
+    "io.restassured.",
+    "groovy.",
+    "org.codehaus.groovy.",
+    "java.lang.reflect.",
+    "java.lang.invoke.",
+    "jdk.internal.reflect.",
+    "sun.reflect."
+  };
+
+  private static final String CAPTURE_CLASS = StackCapture.class.getName();
+  private static final String INTERCEPTOR_CLASS = CurlGeneratingInterceptor.class.getName();
+  private static final String FILTER_CLASS = CurlGeneratingFilter.class.getName();
+
+  private final int maxDepth;
+  private final boolean skipInternal;
+  private final String[] packages;
+
+  StackFrameFilter(Options options) {
+    this.maxDepth = options.stacktraceMaxDepth();
+    this.skipInternal = options.skipInternalStackFrames();
+    List<String> prefixes = options.stackFramePackages();
+    this.packages = prefixes.toArray(new String[0]);
+  }
+
+  int getMaxDepth() {
+    return maxDepth;
+  }
+
+  /** Returns {@code true} for frames capturing stack trace, which are never printed. */
+  static boolean isCaptureFrame(String className) {
+    return className.equals(CAPTURE_CLASS)
+        || className.equals(INTERCEPTOR_CLASS)
+        || className.equals(FILTER_CLASS);
+  }
+
+  /** Returns {@code true} if a frame of a given class should be printed. */
+  boolean accept(String className) {
+    if (skipInternal && startsWithAny(className, INTERNAL_PACKAGES)) {
+      return false;
+    }
+    return packages.length == 0 || startsWithAny(className, packages);
+  }
+
+  private static boolean startsWithAny(String className, String[] prefixes) {
+    for (String prefix : prefixes) {
+      if (className.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
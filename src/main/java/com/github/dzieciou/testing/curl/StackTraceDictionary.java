@@ -0,0 +1,114 @@
+package com.github.dzieciou.testing.curl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded dictionary of stack traces printed with curl commands. Each distinct stack trace gets an
+ * id, printed as {@code stack#<id>}; the full trace is printed only with the first curl command
+ * generated from it, later ones refer to it by id. When the dictionary is full, least recently used
+ * traces are evicted and get a new id when they appear again.
+ */
+public final class StackTraceDictionary {
+
+  private final int maxEntries;
+  private final LinkedHashMap<Frames, Integer> ids;
+  private int nextId = 1;
+
+  /**
+   * Creates a dictionary.
+   *
+   * @param maxEntries maximum number of stack traces to remember
+   */
+  public StackTraceDictionary(int maxEntries) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException(
+          "Maximum number of entries must be positive: " + maxEntries);
+    }
+    this.maxEntries = maxEntries;
+    this.ids =
+        new LinkedHashMap<Frames, Integer>(16, 0.75f, true) {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<Frames, Integer> eldest) {
+            return size() > StackTraceDictionary.this.maxEntries;
+          }
+        };
+  }
+
+  /**
+   * Writes a reference to a given stack trace, followed by the trace itself if it has not been
+   * written before.
+   */
+  void writeTo(StringBuilder out, StackTraceElement[] stacktrace) {
+    Frames frames = new Frames(stacktrace);
+    int id;
+    boolean known;
+    synchronized (this) {
+      Integer existing = ids.get(frames);
+      known = existing != null;
+      id = known ? existing : nextId++;
+      if (!known) {
+        ids.put(frames, id);
+      }
+    }
+    out.append("stack#").append(id);
+    if (!known) {
+      out.append(System.lineSeparator());
+      appendFrames(out, stacktrace);
+    }
+  }
+
+  /**
+   * Writes all stack traces currently in the dictionary, each preceded by its id, from least to
+   * most recently used.
+   *
+   * @param out buffer to write stack traces to
+   * @throws IOException if writing to the buffer failed
+   */
+  public void dump(Appendable out) throws IOException {
+    StringBuilder sb = new StringBuilder();
+    synchronized (this) {
+      for (Map.Entry<Frames, Integer> entry : ids.entrySet()) {
+        sb.append("stack#").append(entry.getValue()).append(System.lineSeparator());
+        appendFrames(sb, entry.getKey().stacktrace);
+      }
+    }
+    out.append(sb);
+  }
+
+  /** Returns number of stack traces currently in the dictionary. */
+  public synchronized int size() {
+    return ids.size();
+  }
+
+  static void appendFrames(StringBuilder out, StackTraceElement[] stacktrace) {
+    for (StackTraceElement traceElement : stacktrace) {
+      out.append("\tat ").append(traceElement).append(System.lineSeparator());
+    }
+  }
+
+  private static final class Frames {
+
+    private final StackTraceElement[] stacktrace;
+    private final int hash;
+
+    Frames(StackTraceElement[] stacktrace) {
+      this.stacktrace = stacktrace;
+      this.hash = Arrays.hashCode(stacktrace);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Frames
+          && hash == ((Frames) o).hash
+          && Arrays.equals(stacktrace, ((Frames) o).stacktrace);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+}
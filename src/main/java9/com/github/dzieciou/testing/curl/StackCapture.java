@@ -0,0 +1,23 @@
+package com.github.dzieciou.testing.curl;
+
+/**
+ * Captures stack trace of the thread sending HTTP request. Walks the stack lazily, so that frames
+ * beyond maximum depth are never materialized.
+ */
+final class StackCapture {
+
+  private static final StackWalker WALKER = StackWalker.getInstance();
+
+  private StackCapture() {}
+
+  static StackTraceElement[] capture(StackFrameFilter filter) {
+    return WALKER.walk(
+        frames ->
+            frames
+                .dropWhile(f -> StackFrameFilter.isCaptureFrame(f.getClassName()))
+                .filter(f -> filter.accept(f.getClassName()))
+                .limit(filter.getMaxDepth())
+                .map(StackWalker.StackFrame::toStackTraceElement)
+                .toArray(StackTraceElement[]::new));
+  }
+}
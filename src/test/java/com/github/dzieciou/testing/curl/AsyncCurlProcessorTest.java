@@ -0,0 +1,97 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class AsyncCurlProcessorTest {
+
+  @Test
+  public void shouldDropNewestTaskWhenQueueIsFull() throws Exception {
+    List<String> executed = new CopyOnWriteArrayList<>();
+    AsyncCurlProcessor processor = new AsyncCurlProcessor(1, 1, OverflowPolicy.DROP_NEWEST);
+    CountDownLatch release = occupyWorker(processor);
+
+    processor.submit(() -> executed.add("first"));
+    processor.submit(() -> executed.add("second"));
+    release.countDown();
+    processor.close();
+
+    assertThat(executed, contains("first"));
+    assertThat(processor.getDroppedCount(), is(1L));
+  }
+
+  @Test
+  public void shouldDropOldestTaskWhenQueueIsFull() throws Exception {
+    List<String> executed = new CopyOnWriteArrayList<>();
+    AsyncCurlProcessor processor = new AsyncCurlProcessor(1, 1, OverflowPolicy.DROP_OLDEST);
+    CountDownLatch release = occupyWorker(processor);
+
+    processor.submit(() -> executed.add("first"));
+    processor.submit(() -> executed.add("second"));
+    release.countDown();
+    processor.close();
+
+    assertThat(executed, contains("second"));
+    assertThat(processor.getDroppedCount(), is(1L));
+  }
+
+  @Test
+  public void shouldBlockUntilThereIsRoomInQueue() throws Exception {
+    List<String> executed = new CopyOnWriteArrayList<>();
+    AsyncCurlProcessor processor = new AsyncCurlProcessor(1, 1, OverflowPolicy.BLOCK);
+    CountDownLatch release = occupyWorker(processor);
+
+    processor.submit(() -> executed.add("first"));
+    Thread producer = new Thread(() -> processor.submit(() -> executed.add("second")));
+    producer.start();
+    producer.join(100);
+    assertThat(producer.isAlive(), is(true));
+
+    release.countDown();
+    producer.join(TimeUnit.SECONDS.toMillis(5));
+    processor.close();
+
+    assertThat(executed, contains("first", "second"));
+    assertThat(processor.getDroppedCount(), is(0L));
+  }
+
+  @Test(timeOut = 10_000)
+  public void shouldCloseAfterWorkerDiedFromError() {
+    List<String> executed = new CopyOnWriteArrayList<>();
+    AsyncCurlProcessor processor = new AsyncCurlProcessor(10, 1, OverflowPolicy.DROP_NEWEST);
+
+    processor.submit(
+        () -> {
+          throw new AssertionError("Worker dies");
+        });
+    processor.submit(() -> executed.add("after"));
+    processor.close();
+
+    assertThat(executed, contains("after"));
+  }
+
+  private static CountDownLatch occupyWorker(AsyncCurlProcessor processor)
+      throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    processor.submit(
+        () -> {
+          started.countDown();
+          try {
+            release.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    started.await(5, TimeUnit.SECONDS);
+    return release;
+  }
+}
@@ -0,0 +1,160 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.apache.http.Header;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class CurlCommandStoreTest {
+
+  private static final Options OPTIONS = Options.builder().useShortForm().build();
+  private static final long START = Instant.parse("2021-12-31T12:00:00Z").toEpochMilli();
+
+  private final AtomicLong clock = new AtomicLong(START);
+  private TemporaryFolder temporaryFolder;
+  private Path base;
+
+  @BeforeMethod
+  public void createStore() throws IOException {
+    temporaryFolder = new TemporaryFolder();
+    base = temporaryFolder.createFile();
+    clock.set(START);
+  }
+
+  @AfterMethod
+  public void deleteStore() {
+    temporaryFolder.deleteAll();
+  }
+
+  @Test
+  public void shouldFindCommandsByMethodPathPrefixAndTime() throws IOException {
+    try (CurlCommandStore store = CurlCommandStore.open(base, clock::get)) {
+      store.handle(curl(new CurlCommand().setUrl("http://localhost/orders/1")), OPTIONS);
+      clock.addAndGet(Duration.ofMinutes(1).toMillis());
+      store.handle(
+          curl(new CurlCommand().setUrl("http://localhost/orders?q=1").addDataBinary("{}")),
+          OPTIONS);
+      clock.addAndGet(Duration.ofMinutes(1).toMillis());
+      store.handle(
+          curl(new CurlCommand().setUrl("http://localhost/ordersArchive/2").setMethod("DELETE")),
+          OPTIONS);
+      store.handle(curl(new CurlCommand().setUrl("http://localhost/users")), OPTIONS);
+
+      assertThat(urls(store.query().pathPrefix("/orders").list()).size(), is(3));
+      assertThat(
+          urls(store.query().pathPrefix("/ordersArchive/").list()),
+          contains("http://localhost/ordersArchive/2"));
+      assertThat(
+          urls(store.query().method("POST").list()), contains("http://localhost/orders?q=1"));
+      assertThat(
+          urls(
+              store
+                  .query()
+                  .from(Instant.ofEpochMilli(START + 1))
+                  .to(Instant.ofEpochMilli(START + Duration.ofMinutes(2).toMillis()))
+                  .list()),
+          contains("http://localhost/orders?q=1"));
+      assertThat(
+          urls(store.query().from(Instant.ofEpochMilli(START + 1)).limit(1).list()),
+          contains("http://localhost/orders?q=1"));
+      assertThat(store.query().method("PUT").list(), is(empty()));
+    }
+  }
+
+  @Test
+  public void shouldStoreDetailsOfCommand() throws IOException {
+    try (CurlCommandStore store = CurlCommandStore.open(base, clock::get)) {
+      CurlCommand command = new CurlCommand().setUrl("http://localhost:8080/orders/1?x=y");
+      Exchange exchange = new Exchange(404, Duration.ofMillis(5), null);
+      store.handle(
+          new GeneratedCurl(command, OPTIONS, null, exchange, Thread.currentThread(), clock.get()),
+          OPTIONS);
+
+      CurlCommandStore.StoredCurl stored = store.query().list().get(0);
+      assertThat(stored.getTimestamp(), equalTo(Instant.ofEpochMilli(START)));
+      assertThat(stored.getMethod(), equalTo("GET"));
+      assertThat(stored.getHost(), equalTo("localhost:8080"));
+      assertThat(stored.getPath(), equalTo("/orders/1"));
+      assertThat(stored.getStatusCode(), equalTo(OptionalInt.of(404)));
+      assertThat(stored.getThread(), equalTo(Thread.currentThread().getName()));
+      assertThat(stored.getCurl(), equalTo("curl 'http://localhost:8080/orders/1?x=y'"));
+    }
+  }
+
+  @Test
+  public void shouldStoreThreadAndTimeOfSendingRequestWhenProcessingAsynchronously()
+      throws IOException {
+    try (CurlCommandStore store = CurlCommandStore.open(base, clock::get)) {
+      Options options = Options.builder().useShortForm().processAsynchronously().build();
+      CurlGeneratingInterceptor interceptor =
+          new CurlGeneratingInterceptor(options, Collections.singletonList(store));
+      long before = System.currentTimeMillis();
+
+      interceptor.dispatch(
+          RequestSnapshot.withoutEntity(
+              "GET", "http://localhost/async", ClassifiedHeaders.classify(new Header[0])),
+          null);
+      interceptor.close();
+
+      CurlCommandStore.StoredCurl stored = store.query().list().get(0);
+      assertThat(stored.getThread(), equalTo(Thread.currentThread().getName()));
+      // Taken when the request is sent, not from the clock of the store when handled
+      assertThat(stored.getTimestamp().toEpochMilli(), is(greaterThanOrEqualTo(before)));
+    }
+  }
+
+  @Test
+  public void shouldStorePathLongerThanModifiedUtf8Limit() throws IOException {
+    StringBuilder path = new StringBuilder("/long/");
+    while (path.length() <= 70_000) {
+      path.append("segment/");
+    }
+    try (CurlCommandStore store = CurlCommandStore.open(base, clock::get)) {
+      store.handle(curl(new CurlCommand().setUrl("http://localhost" + path)), OPTIONS);
+
+      assertThat(
+          store.query().pathPrefix("/long/").list().get(0).getPath(), equalTo(path.toString()));
+    }
+  }
+
+  @Test
+  public void shouldQueryCommandsStoredBeforeReopening() throws IOException {
+    try (CurlCommandStore store = CurlCommandStore.open(base, clock::get)) {
+      store.handle(curl(new CurlCommand().setUrl("http://localhost/first")), OPTIONS);
+    }
+    clock.set(START - 1000);
+    try (CurlCommandStore store = CurlCommandStore.open(base, clock::get)) {
+      store.handle(curl(new CurlCommand().setUrl("http://localhost/second")), OPTIONS);
+
+      List<CurlCommandStore.StoredCurl> stored = store.query().list();
+      assertThat(urls(stored), contains("http://localhost/first", "http://localhost/second"));
+      // Clock going back does not break order of the index
+      assertThat(stored.get(1).getTimestamp(), equalTo(Instant.ofEpochMilli(START)));
+    }
+  }
+
+  private GeneratedCurl curl(CurlCommand command) {
+    return new GeneratedCurl(command, OPTIONS, null, null, Thread.currentThread(), clock.get());
+  }
+
+  private static List<String> urls(List<CurlCommandStore.StoredCurl> stored) {
+    return stored.stream().map(s -> s.getCurl().split("'")[1]).collect(Collectors.toList());
+  }
+}
@@ -1,10 +1,14 @@
 package com.github.dzieciou.testing.curl;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.testng.Assert.assertThrows;
 
+import java.util.List;
 import org.testng.annotations.Test;
 
 public class CurlCommandTest {
@@ -79,6 +83,60 @@ public class CurlCommandTest {
         equalTo("curl \"/requestPath\" --data-binary \"maciek@gmail.com\""));
   }
 
+  @Test
+  public void shouldEscapeNonPrintableAsciiCharactersAsHexOnUnix() {
+
+    CurlCommand curl =
+        new CurlCommand().setUrl("/requestPath").addDataBinary("a\u0000b\u001bc\u007fd\be");
+
+    assertThat(
+        curl.asString(Platform.UNIX, true, false, true),
+        equalTo("curl '/requestPath' --data-binary $'a\\x00b\\x1bc\\x7fd\\x08e'"));
+  }
+
+  @Test
+  public void shouldEscapeRunsOfNewLinesPercentsAndQuotesOnWindows() {
+
+    CurlCommand curl =
+        new CurlCommand().setUrl("/requestPath").addDataBinary("a%%b\"\r\n\nc\\d\ne");
+
+    assertThat(
+        curl.asString(Platform.WINDOWS, true, false, true),
+        equalTo(
+            "curl \"/requestPath\" --data-binary"
+                + " \"a\"%\"\"%\"b\"\"\"^\r\n\r\n\n\"c\\d\"^\r\n\n\"e\""));
+  }
+
+  @Test
+  public void shouldEscapeEachNonAsciiByteOfBinaryDataOnUnix() {
+
+    CurlCommand curl =
+        new CurlCommand()
+            .setUrl("/requestPath")
+            .addDataBinary("name=Administração\n".getBytes(UTF_8), UTF_8);
+
+    assertThat(
+        curl.asString(Platform.UNIX, true, false, true),
+        equalTo("curl '/requestPath' --data-binary $'name=Administra\\xc3\\xa7\\xc3\\xa3o\\n'"));
+    assertThat(
+        curl.asString(Platform.UNIX, true, false, false),
+        equalTo("curl '/requestPath' --data-binary $'name=Administração\\n'"));
+    assertThat(
+        curl.asString(Platform.WINDOWS, true, false, true),
+        equalTo("curl \"/requestPath\" --data-binary \"name=Administração\"^\r\n\n\"\""));
+  }
+
+  @Test
+  public void shouldNotQuoteBinaryDataWithoutCharactersToEscape() {
+
+    CurlCommand curl =
+        new CurlCommand().setUrl("/requestPath").addDataBinary("a=b".getBytes(UTF_8), UTF_8);
+
+    assertThat(
+        curl.asString(Platform.UNIX, true, false, true),
+        equalTo("curl '/requestPath' --data-binary 'a=b'"));
+  }
+
   @Test
   public void shouldEscapeMultipleCharacters() {
 
@@ -109,4 +167,63 @@ public class CurlCommandTest {
                 + "\"   'password':'abc\"%\"\"\"'\"^\r\n\r\n"
                 + "\"}\""));
   }
+
+  @Test
+  public void shouldWriteSameCommandToBufferAsSerializingToString() throws Exception {
+
+    CurlCommand curl =
+        new CurlCommand()
+            .setUrl("http://testapi.com/post")
+            .setMethod("PUT")
+            .setCookieHeader("X=Y")
+            .addHeader("Content-Type", "application/json")
+            .addFormPart("name", "value")
+            .addDataBinary("{'name':'Administração'}")
+            .setServerAuthentication("user", "password")
+            .setCompressed(true)
+            .setInsecure(true)
+            .setVerbose(true);
+
+    StringBuilder buffer = new StringBuilder("prefix: ");
+    curl.writeTo(buffer, Platform.UNIX, false, true, true);
+
+    assertThat(
+        buffer.toString(), equalTo("prefix: " + curl.asString(Platform.UNIX, false, true, true)));
+    assertThat(
+        buffer.toString(),
+        equalTo(
+            "prefix: curl 'http://testapi.com/post' \\\n"
+                + "  --request PUT \\\n"
+                + "  --cookie 'X=Y' \\\n"
+                + "  --header 'Content-Type: application/json' \\\n"
+                + "  --form 'name=value' \\\n"
+                + "  --data-binary $'{\\'name\\':\\'Administra\\xe7\\xe3o\\'}' \\\n"
+                + "  --user 'user:password' \\\n"
+                + "  --compressed \\\n"
+                + "  --insecure \\\n"
+                + "  --verbose"));
+  }
+
+  @Test
+  public void shouldExposeReadOnlyViewsOfCommand() {
+    CurlCommand curl =
+        new CurlCommand()
+            .setUrl("http://testapi.com/post")
+            .setMethod("PUT")
+            .addHeader("Content-Type", "application/json")
+            .addFormPart("name", "value")
+            .setServerAuthentication("user", "password");
+
+    List<CurlCommand.Header> headers = curl.headers();
+    curl.addDataBinary("body");
+
+    assertThat(curl.getUrl(), equalTo("http://testapi.com/post"));
+    assertThat(curl.getMethod(), equalTo("PUT"));
+    assertThat(headers.get(0).getName(), equalTo("Content-Type"));
+    assertThat(curl.formParts().get(0).getName(), equalTo("name"));
+    assertThat(curl.dataBinary().get(0).getContent(), equalTo("body"));
+    assertThat(curl.getServerAuthentication().get().getUser(), equalTo("user"));
+    assertThat(curl.headers(), sameInstance(headers));
+    assertThrows(UnsupportedOperationException.class, () -> headers.remove(0));
+  }
 }
@@ -0,0 +1,365 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class CurlFileWriterTest {
+
+  private static final Options OPTIONS = Options.builder().useShortForm().build();
+
+  private TemporaryFolder temporaryFolder;
+
+  @BeforeMethod
+  public void createFolder() throws IOException {
+    temporaryFolder = new TemporaryFolder();
+  }
+
+  @AfterMethod
+  public void deleteFolder() {
+    temporaryFolder.deleteAll();
+  }
+
+  @Test
+  public void shouldAppendCommandsInOrder() throws IOException {
+    Path file = temporaryFolder.createFile();
+    Files.write(file, ("existing" + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+
+    try (CurlFileWriter writer = CurlFileWriter.builder(file).batchSize(2).build()) {
+      writer.handle(curl("/1"), OPTIONS);
+      writer.handle(curl("/zażółć"), OPTIONS);
+      writer.handleSummary("previous command repeated 2 times (GET http://localhost/1)", OPTIONS);
+    }
+
+    assertThat(
+        Files.readAllLines(file, StandardCharsets.UTF_8),
+        contains(
+            "existing",
+            "curl 'http://localhost/1' --compressed -k -v",
+            "curl 'http://localhost/zażółć' --compressed -k -v",
+            "previous command repeated 2 times (GET http://localhost/1)"));
+  }
+
+  @Test
+  public void shouldReplaceLoneSurrogateWithoutDroppingBatch() throws IOException {
+    Path file = temporaryFolder.createFile();
+
+    try (CurlFileWriter writer = CurlFileWriter.builder(file).batchSize(3).build()) {
+      writer.handle(curl("/1"), OPTIONS);
+      writer.handleSummary("broken \uD800 summary", OPTIONS);
+      writer.handle(curl("/2"), OPTIONS);
+    }
+
+    assertThat(
+        Files.readAllLines(file, StandardCharsets.UTF_8),
+        contains(
+            "curl 'http://localhost/1' --compressed -k -v",
+            "broken ? summary",
+            "curl 'http://localhost/2' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldWriteBatchAfterLingerTime() throws Exception {
+    Path file = temporaryFolder.createFile();
+
+    try (CurlFileWriter writer =
+        CurlFileWriter.builder(file)
+            .batchSize(1000)
+            .lingerTime(Duration.ofMillis(10))
+            .fsync(FsyncPolicy.EVERY_BATCH)
+            .build()) {
+      writer.handle(curl("/1"), OPTIONS);
+
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (Files.size(file) == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      assertThat(
+          Files.readAllLines(file, StandardCharsets.UTF_8),
+          contains("curl 'http://localhost/1' --compressed -k -v"));
+    }
+  }
+
+  @Test
+  public void shouldWriteCommandsFromManyThreads() throws Exception {
+    Path file = temporaryFolder.createFile();
+    int threads = 4;
+    int perThread = 500;
+
+    try (CurlFileWriter writer =
+        CurlFileWriter.builder(file).batchSize(64).queueCapacity(16).build()) {
+      List<Thread> producers = new ArrayList<>();
+      for (int t = 0; t < threads; t++) {
+        int thread = t;
+        producers.add(
+            new Thread(
+                () -> {
+                  for (int i = 0; i < perThread; i++) {
+                    writer.handle(curl("/" + thread + "/" + i), OPTIONS);
+                  }
+                }));
+      }
+      producers.forEach(Thread::start);
+      for (Thread producer : producers) {
+        producer.join();
+      }
+      assertThat(writer.getDroppedCount(), is(0L));
+    }
+
+    Set<String> lines = new HashSet<>(Files.readAllLines(file, StandardCharsets.UTF_8));
+    assertThat(lines.size(), equalTo(threads * perThread));
+  }
+
+  @Test
+  public void shouldDropCommandsHandledAfterClosing() throws IOException {
+    Path file = temporaryFolder.createFile();
+    CurlFileWriter writer = CurlFileWriter.builder(file).build();
+    writer.close();
+
+    writer.handle(curl("/1"), OPTIONS);
+
+    assertThat(writer.getDroppedCount(), is(1L));
+    assertThat(Files.size(file), is(0L));
+  }
+
+  @Test
+  public void shouldCompressRolledSegments() throws IOException {
+    Path file = temporaryFolder.createFile();
+
+    try (CurlFileWriter writer =
+        CurlFileWriter.builder(file)
+            .batchSize(1)
+            .lingerTime(Duration.ZERO)
+            .maxSegmentSize(100)
+            .build()) {
+      for (int i = 1; i <= 7; i++) {
+        writer.handle(curl("/" + i), OPTIONS);
+      }
+    }
+
+    List<Path> segments = segments(file);
+    assertThat(segments.size(), is(3));
+    List<String> lines = new ArrayList<>();
+    for (Path segment : segments) {
+      assertThat(segment.getFileName().toString(), endsWith(".gz"));
+      try (BufferedReader reader =
+          new BufferedReader(
+              new InputStreamReader(
+                  new GZIPInputStream(Files.newInputStream(segment)), StandardCharsets.UTF_8))) {
+        reader.lines().forEach(lines::add);
+      }
+    }
+    assertThat(lines.size(), is(7));
+    assertThat(lines.get(6), equalTo("curl 'http://localhost/7' --compressed -k -v"));
+    assertThat(Files.exists(file), is(false));
+  }
+
+  @Test
+  public void shouldDeleteOldestSegmentsOverArchiveSize() throws IOException {
+    Path file = temporaryFolder.createFile();
+
+    try (CurlFileWriter writer =
+        CurlFileWriter.builder(file)
+            .batchSize(1)
+            .lingerTime(Duration.ZERO)
+            .maxSegmentSize(100)
+            .compressRolledSegments(false)
+            .maxArchiveSize(200)
+            .build()) {
+      for (int i = 1; i <= 9; i++) {
+        writer.handle(curl("/" + i), OPTIONS);
+      }
+    }
+
+    List<Path> segments = segments(file);
+    assertThat(segments.size(), is(1));
+    assertThat(
+        Files.readAllLines(segments.get(0), StandardCharsets.UTF_8).get(0),
+        equalTo("curl 'http://localhost/4' --compressed -k -v"));
+    assertThat(
+        Files.readAllLines(file, StandardCharsets.UTF_8).get(0),
+        equalTo("curl 'http://localhost/7' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldKeepWritingWhenRollingOverFails() throws Exception {
+    Path file = temporaryFolder.createFile();
+
+    try (CurlFileWriter writer =
+        CurlFileWriter.builder(file)
+            .batchSize(1)
+            .lingerTime(Duration.ZERO)
+            .maxSegmentSize(40)
+            .compressRolledSegments(false)
+            .build()) {
+      writer.handle(curl("/1"), OPTIONS);
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (Files.size(file) == 0 && System.nanoTime() < deadline) {
+        Thread.sleep(5);
+      }
+      // Active segment removed behind writer's back cannot be renamed
+      Files.delete(file);
+      writer.handle(curl("/2"), OPTIONS);
+      writer.handle(curl("/3"), OPTIONS);
+    }
+
+    List<Path> segments = segments(file);
+    assertThat(segments.size(), is(1));
+    assertThat(
+        Files.readAllLines(segments.get(0), StandardCharsets.UTF_8),
+        contains("curl 'http://localhost/2' --compressed -k -v"));
+    assertThat(
+        Files.readAllLines(file, StandardCharsets.UTF_8),
+        contains("curl 'http://localhost/3' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldMergeSegmentsOfProcessesByTime() throws IOException {
+    Path file = temporaryFolder.createFile();
+    long now = System.currentTimeMillis();
+    // Segments of other processes, the second one killed while writing
+    writeSegment(
+        file.resolveSibling(file.getFileName() + ".1"), now - 2000, "first", now + 60000, "last");
+    Path killed = file.resolveSibling(file.getFileName() + ".2");
+    writeSegment(killed, now - 1000, "second\nin two lines");
+    Files.write(
+        killed, "12345 100\ntrunc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    try (CurlFileWriter writer = CurlFileWriter.builder(file).segmentPerProcess().build()) {
+      assertThat(writer.getFile(), not(equalTo(file)));
+      writer.handle(curl("/current"), OPTIONS);
+    }
+    long merged = CurlFileWriter.mergeProcessSegments(file);
+
+    assertThat(merged, is(4L));
+    assertThat(
+        Files.readAllLines(file, StandardCharsets.UTF_8),
+        contains(
+            "first",
+            "second",
+            "in two lines",
+            "curl 'http://localhost/current' --compressed -k -v",
+            "last"));
+    assertThat(segments(file), is(empty()));
+  }
+
+  @Test
+  public void shouldCutOffTruncatedRecordBeforeAppendingToSegment() throws IOException {
+    Path file = temporaryFolder.createFile();
+    // Segment left by a killed process that had the same id
+    Path segment = ProcessSegments.segmentOfCurrentProcess(file);
+    writeSegment(segment, System.currentTimeMillis() - 1000, "earlier");
+    Files.write(
+        segment, "12345 100\ntrunc".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    try (CurlFileWriter writer = CurlFileWriter.builder(file).segmentPerProcess().build()) {
+      writer.handle(curl("/current"), OPTIONS);
+    }
+    long merged = CurlFileWriter.mergeProcessSegments(file);
+
+    assertThat(merged, is(2L));
+    assertThat(
+        Files.readAllLines(file, StandardCharsets.UTF_8),
+        contains("earlier", "curl 'http://localhost/current' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldKeepMalformedSegmentAfterMerging() throws IOException {
+    Path file = temporaryFolder.createFile();
+    Path segment = file.resolveSibling(file.getFileName() + ".1");
+    writeSegment(segment, 1000L, "first");
+    Files.write(segment, "garbage\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+    byte[] content = Files.readAllBytes(segment);
+    writeSegment(file.resolveSibling(file.getFileName() + ".2"), 2000L, "second");
+
+    long merged = CurlFileWriter.mergeProcessSegments(file);
+
+    assertThat(merged, is(2L));
+    assertThat(Files.readAllLines(file, StandardCharsets.UTF_8), contains("first", "second"));
+    List<Path> kept = segments(file);
+    assertThat(kept.size(), is(1));
+    assertThat(kept.get(0).getFileName().toString(), endsWith(".malformed"));
+    assertThat(Files.readAllBytes(kept.get(0)), equalTo(content));
+    // Segment kept aside is not merged again
+    assertThat(CurlFileWriter.mergeProcessSegments(file), is(0L));
+  }
+
+  @Test
+  public void shouldStopAtCorruptedRecordLength() throws IOException {
+    Path file = temporaryFolder.createFile();
+    Path oversized = file.resolveSibling(file.getFileName() + ".1");
+    writeSegment(oversized, 1000L, "first");
+    Files.write(
+        oversized,
+        "3000 2147483647\nrest\n".getBytes(StandardCharsets.UTF_8),
+        StandardOpenOption.APPEND);
+    Path negative = file.resolveSibling(file.getFileName() + ".2");
+    writeSegment(negative, 2000L, "second");
+    Files.write(
+        negative, "4000 -5\nrest\n".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+    long merged = CurlFileWriter.mergeProcessSegments(file);
+
+    assertThat(merged, is(2L));
+    assertThat(Files.readAllLines(file, StandardCharsets.UTF_8), contains("first", "second"));
+    List<Path> kept = segments(file);
+    assertThat(kept.size(), is(1));
+    assertThat(kept.get(0).getFileName().toString(), endsWith(".malformed"));
+  }
+
+  private static void writeSegment(Path segment, Object... records) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < records.length; i += 2) {
+      byte[] bytes = ((String) records[i + 1]).getBytes(StandardCharsets.UTF_8);
+      out.write(ProcessSegments.header((Long) records[i], bytes.length));
+      out.write(bytes);
+      out.write('\n');
+    }
+    Files.write(segment, out.toByteArray());
+  }
+
+  private static List<Path> segments(Path file) throws IOException {
+    try (Stream<Path> files = Files.list(file.getParent())) {
+      return files
+          .filter(f -> f.getFileName().toString().startsWith(file.getFileName() + "."))
+          .sorted()
+          .collect(Collectors.toList());
+    }
+  }
+
+  private static GeneratedCurl curl(String path) {
+    CurlCommand command =
+        new CurlCommand()
+            .setUrl("http://localhost" + path)
+            .setCompressed(true)
+            .setInsecure(true)
+            .setVerbose(true);
+    return new GeneratedCurl(command, OPTIONS, null);
+  }
+}
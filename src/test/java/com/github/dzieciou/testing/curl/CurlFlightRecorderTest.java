@@ -0,0 +1,126 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.Header;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class CurlFlightRecorderTest {
+
+  private static final Options OPTIONS = Options.builder().useShortForm().build();
+
+  @Test
+  public void shouldKeepMostRecentCommands() {
+    CurlFlightRecorder recorder = CurlFlightRecorder.global(3, Long.MAX_VALUE);
+
+    for (int i = 1; i <= 5; i++) {
+      recorder.handle(curl("/" + i), OPTIONS);
+    }
+
+    assertThat(
+        recorder.dump(),
+        contains(
+            "curl 'http://localhost/3' --compressed -k -v",
+            "curl 'http://localhost/4' --compressed -k -v",
+            "curl 'http://localhost/5' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldEvictOldestCommandsOverMemoryBudget() {
+    long budget = 3 * curl("/1").estimateRetainedSize();
+    CurlFlightRecorder recorder = CurlFlightRecorder.global(100, budget);
+
+    for (int i = 1; i <= 9; i++) {
+      recorder.handle(curl("/" + i), OPTIONS);
+    }
+
+    assertThat(
+        recorder.dump(),
+        contains(
+            "curl 'http://localhost/7' --compressed -k -v",
+            "curl 'http://localhost/8' --compressed -k -v",
+            "curl 'http://localhost/9' --compressed -k -v"));
+    assertThat(recorder.getRetainedBytes(), lessThanOrEqualTo(budget));
+  }
+
+  @Test
+  public void shouldAlwaysKeepMostRecentCommand() {
+    CurlFlightRecorder recorder = CurlFlightRecorder.global(10, 1);
+
+    recorder.handle(curl("/1"), OPTIONS);
+    recorder.handle(curl("/2"), OPTIONS);
+
+    assertThat(recorder.dump(), contains("curl 'http://localhost/2' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldKeepCommandsPerThread() throws InterruptedException {
+    CurlFlightRecorder recorder = CurlFlightRecorder.perThread(1, Long.MAX_VALUE);
+
+    recorder.handle(curl("/main"), OPTIONS);
+    Thread other = new Thread(() -> recorder.handle(curl("/other"), OPTIONS));
+    other.start();
+    other.join();
+
+    assertThat(
+        recorder.dumpCurrentThread(), contains("curl 'http://localhost/main' --compressed -k -v"));
+    assertThat(recorder.dump().size(), is(2));
+
+    recorder.clear();
+    assertThat(recorder.dump(), is(empty()));
+    assertThat(recorder.getRetainedBytes(), equalTo(0L));
+  }
+
+  @Test
+  public void shouldKeepCommandsByThreadSendingRequestWhenProcessingAsynchronously() {
+    CurlFlightRecorder recorder = CurlFlightRecorder.perThread(10, Long.MAX_VALUE);
+    Options options = Options.builder().useShortForm().processAsynchronously().build();
+    CurlGeneratingInterceptor interceptor =
+        new CurlGeneratingInterceptor(options, Collections.singletonList(recorder));
+
+    interceptor.dispatch(
+        RequestSnapshot.withoutEntity(
+            "GET", "http://localhost/async", ClassifiedHeaders.classify(new Header[0])),
+        null);
+    interceptor.close();
+
+    assertThat(
+        recorder.dumpCurrentThread(), contains("curl 'http://localhost/async' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldDumpCommandsAndSummariesToHandler() {
+    CurlFlightRecorder recorder = CurlFlightRecorder.global(10, Long.MAX_VALUE);
+    recorder.handle(curl("/status"), OPTIONS);
+    recorder.handleSummary(
+        "previous command repeated 2 times (GET http://localhost/status)", OPTIONS);
+
+    List<String> dumped = new ArrayList<>();
+    recorder.dumpTo((curl, options) -> dumped.add(curl));
+
+    assertThat(
+        dumped,
+        contains(
+            "curl 'http://localhost/status' --compressed -k -v",
+            "previous command repeated 2 times (GET http://localhost/status)"));
+  }
+
+  private static GeneratedCurl curl(String path) {
+    CurlCommand command =
+        new CurlCommand()
+            .setUrl("http://localhost" + path)
+            .setCompressed(true)
+            .setInsecure(true)
+            .setVerbose(true);
+    return new GeneratedCurl(command, OPTIONS, null);
+  }
+}
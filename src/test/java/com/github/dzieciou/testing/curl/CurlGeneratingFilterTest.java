@@ -0,0 +1,339 @@
+package com.github.dzieciou.testing.curl;
+
+import static io.restassured.RestAssured.given;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.mockserver.integration.ClientAndServer.startClientAndServer;
+import static org.mockserver.model.HttpRequest.request;
+import static org.mockserver.model.HttpResponse.response;
+
+import io.restassured.config.HttpClientConfig;
+import io.restassured.config.RestAssuredConfig;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.mockserver.client.MockServerClient;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class CurlGeneratingFilterTest {
+
+  private static final int MOCK_PORT = 9999;
+  private static final String MOCK_HOST = "localhost";
+  private static final String MOCK_BASE_URI = "http://" + MOCK_HOST;
+  private MockServerClient mockServer;
+
+  @BeforeClass
+  public void setupMock() {
+    mockServer = startClientAndServer(MOCK_PORT);
+    mockServer.when(request()).respond(response().withBody("ok"));
+  }
+
+  @Test
+  public void shouldGenerateCurlFromSerializedBody() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    Map<String, Object> body = new LinkedHashMap<>();
+    body.put("name", "value");
+
+    given()
+        .filter(newFilter(curls))
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .contentType("application/json")
+        .queryParam("q", "x y")
+        .body(body)
+        .when()
+        .post("/resource")
+        .then()
+        .statusCode(200);
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/resource?q=x%20y' -H 'Accept: */*' "
+                + "-H 'Content-Type: application/json' --data-binary '{\"name\":\"value\"}' "
+                + "--compressed -k -v"));
+  }
+
+  @Test
+  public void shouldGenerateCurlWithDefaultContentTypeOfBody() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter filter = newFilter(curls);
+
+    given().filter(filter).baseUri(MOCK_BASE_URI).port(MOCK_PORT).body("hello").post("/text");
+    given()
+        .filter(filter)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .body(new byte[] {'h', 'i'})
+        .post("/binary");
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/text' -H 'Accept: */*' "
+                + "-H 'Content-Type: text/plain; charset=ISO-8859-1' --data-binary 'hello' "
+                + "--compressed -k -v",
+            "curl 'http://localhost:9999/binary' -H 'Accept: */*' "
+                + "-H 'Content-Type: application/octet-stream; charset=ISO-8859-1' "
+                + "--data-binary 'hi' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldGenerateCurlReferringToFileBody() throws IOException {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    Path file = Files.createTempFile("curl-body-", ".json");
+    Files.write(file, "{}".getBytes(StandardCharsets.UTF_8));
+
+    try {
+      given()
+          .filter(newFilter(curls))
+          .baseUri(MOCK_BASE_URI)
+          .port(MOCK_PORT)
+          .contentType("application/json")
+          .body(file.toFile())
+          .post("/file");
+    } finally {
+      Files.delete(file);
+    }
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/file' -H 'Accept: */*' "
+                + "-H 'Content-Type: application/json' --data-binary '@"
+                + file
+                + "' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldGenerateCurlWithoutInputStreamBody() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+
+    given()
+        .filter(newFilter(curls))
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .contentType("application/json")
+        .body(new ByteArrayInputStream("{}".getBytes(StandardCharsets.UTF_8)))
+        .post("/stream")
+        .then()
+        .statusCode(200);
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/stream' -X POST -H 'Accept: */*' "
+                + "-H 'Content-Type: application/json' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldGenerateCurlWithCookiesAndAuthentication() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+
+    given()
+        .filter(newFilter(curls))
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .cookie("a", "1")
+        .cookie("b", "2")
+        .auth()
+        .basic("user", "secret")
+        .when()
+        .get("/resource");
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/resource' -b 'a=1; b=2' -H 'Accept: */*' -u 'user:secret' "
+                + "--compressed -k -v"));
+  }
+
+  @Test
+  public void shouldGenerateCurlWithFormAndMultipartParams() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter filter = newFilter(curls);
+
+    given()
+        .filter(filter)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .formParam("name", "a value")
+        .when()
+        .post("/form");
+    given()
+        .filter(filter)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .multiPart("text", "hello")
+        .multiPart("data", "data.bin", new byte[] {1, 2})
+        .when()
+        .post("/multipart");
+
+    assertThat(curls.size(), is(2));
+    assertThat(
+        curls.get(0),
+        equalTo(
+            "curl 'http://localhost:9999/form' -H 'Accept: */*' "
+                + "-H 'Content-Type: application/x-www-form-urlencoded; charset=ISO-8859-1' "
+                + "--data-binary 'name=a%20value' --compressed -k -v"));
+    assertThat(
+        curls.get(1),
+        equalTo(
+            "curl 'http://localhost:9999/multipart' -X POST -H 'Accept: */*' "
+                + "-F 'text=hello;type=text/plain' "
+                + "-F 'data=@data.bin;type=application/octet-stream' --compressed -k -v"));
+  }
+
+  @Test(timeOut = 30000)
+  @SuppressWarnings("deprecation")
+  public void shouldWorkWithReusedHttpClient() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter filter = newFilter(curls);
+    RestAssuredConfig config =
+        RestAssuredConfig.config()
+            .httpClient(
+                HttpClientConfig.httpClientConfig()
+                    .reuseHttpClientInstance()
+                    .httpClientFactory(
+                        () -> new DefaultHttpClient(new PoolingClientConnectionManager())));
+
+    // reading response body releases pooled connection
+    for (int i = 0; i < 3; i++) {
+      String response =
+          given()
+              .config(config)
+              .filter(filter)
+              .baseUri(MOCK_BASE_URI)
+              .port(MOCK_PORT)
+              .when()
+              .get("/reused")
+              .asString();
+      assertThat(response, equalTo("ok"));
+    }
+
+    assertThat(curls.size(), is(3));
+  }
+
+  @Test
+  public void shouldGenerateCurlOnlyForSampledRequests() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter filter =
+        new CurlGeneratingFilter(
+            Options.builder().sample(SamplingPolicy.firstThenEveryNth(1, 2)).build(),
+            Collections.singletonList((curl, o) -> curls.add(curl)));
+
+    for (int id = 1; id <= 5; id++) {
+      given().filter(filter).baseUri(MOCK_BASE_URI).port(MOCK_PORT).when().get("/users/{id}", id);
+    }
+
+    assertThat(curls.size(), is(3));
+  }
+
+  @Test
+  public void shouldSuppressRepeatedCurl() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter filter =
+        new CurlGeneratingFilter(
+            Options.builder().useShortForm().suppressDuplicates(Duration.ofMinutes(1)).build(),
+            Collections.singletonList((curl, o) -> curls.add(curl)));
+
+    for (int i = 0; i < 5; i++) {
+      given().filter(filter).baseUri(MOCK_BASE_URI).port(MOCK_PORT).when().get("/status");
+    }
+    filter.close();
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/status' -H 'Accept: */*' --compressed -k -v",
+            "previous command repeated 4 times (GET http://localhost:9999/status)"));
+  }
+
+  @Test(timeOut = 30000)
+  public void shouldReportRepeatsOfCurlNoLongerSent() throws InterruptedException {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter filter =
+        new CurlGeneratingFilter(
+            Options.builder().useShortForm().suppressDuplicates(Duration.ofSeconds(2)).build(),
+            Collections.singletonList((curl, o) -> curls.add(curl)));
+
+    for (int i = 0; i < 3; i++) {
+      given().filter(filter).baseUri(MOCK_BASE_URI).port(MOCK_PORT).when().get("/polled");
+    }
+    while (curls.size() < 2) {
+      Thread.sleep(10);
+    }
+
+    assertThat(
+        curls,
+        contains(
+            "curl 'http://localhost:9999/polled' -H 'Accept: */*' --compressed -k -v",
+            "previous command repeated 2 times (GET http://localhost:9999/polled)"));
+  }
+
+  @Test
+  public void shouldGenerateCurlOnlyForMatchingExchanges() {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    CurlGeneratingFilter slowOnly =
+        new CurlGeneratingFilter(
+            Options.builder().logOnlyIf(Exchange.slowerThan(Duration.ofHours(1))).build(),
+            Collections.singletonList((curl, o) -> curls.add(curl)));
+    CurlGeneratingFilter succeededOnly =
+        new CurlGeneratingFilter(
+            Options.builder().logOnlyIf(e -> e.getStatusCode().orElse(0) == 200).build(),
+            Collections.singletonList((curl, o) -> curls.add(curl)));
+
+    given().filter(slowOnly).baseUri(MOCK_BASE_URI).port(MOCK_PORT).when().get("/fast");
+    given().filter(succeededOnly).baseUri(MOCK_BASE_URI).port(MOCK_PORT).when().get("/succeeded");
+
+    assertThat(curls, contains(startsWith("curl 'http://localhost:9999/succeeded'")));
+  }
+
+  @Test
+  public void shouldPassOutcomeOfExchangeToHandlers() {
+    List<Integer> statusCodes = new CopyOnWriteArrayList<>();
+    CurlHandler handler =
+        new CurlHandler() {
+          @Override
+          public void handle(String curl, Options options) {}
+
+          @Override
+          public void handle(GeneratedCurl curl, Options options) {
+            statusCodes.add(curl.getExchange().get().getStatusCode().getAsInt());
+          }
+        };
+    CurlGeneratingFilter filter =
+        new CurlGeneratingFilter(
+            Options.builder().logOnlyIf(e -> true).build(), Collections.singletonList(handler));
+
+    given().filter(filter).baseUri(MOCK_BASE_URI).port(MOCK_PORT).when().get("/outcome");
+
+    assertThat(statusCodes, contains(200));
+  }
+
+  @AfterClass
+  public void closeMock() {
+    mockServer.stop();
+  }
+
+  private static CurlGeneratingFilter newFilter(List<String> curls) {
+    Options options = Options.builder().useShortForm().build();
+    return new CurlGeneratingFilter(
+        options, Collections.singletonList((curl, o) -> curls.add(curl)));
+  }
+}
@@ -7,6 +7,7 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.both;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.startsWith;
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
@@ -17,12 +18,23 @@ import com.github.valfirst.slf4jtest.TestLogger;
 import com.github.valfirst.slf4jtest.TestLoggerFactory;
 import io.restassured.config.HttpClientConfig;
 import io.restassured.config.RestAssuredConfig;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.mockserver.client.MockServerClient;
 import org.testng.annotations.AfterClass;
 import org.testng.annotations.AfterMethod;
@@ -83,6 +95,44 @@ public class CurlGeneratingInterceptorTest {
     assertThat(firstEvent.getMessage(), startsWith("curl"));
   }
 
+  @Test
+  public void shouldNotSerializeCurlForDisabledHandlers() {
+    // given
+    AtomicInteger serializations = new AtomicInteger();
+    List<CurlCommand> commands = new CopyOnWriteArrayList<>();
+    CurlHandler disabled =
+        new CurlHandler() {
+          @Override
+          public void handle(String curl, Options options) {
+            serializations.incrementAndGet();
+          }
+
+          @Override
+          public boolean isEnabled(Options options) {
+            return false;
+          }
+        };
+    CurlCommandHandler enabled = (curl, options) -> commands.add(curl);
+    RestAssuredConfig restAssuredConfig =
+        getRestAssuredConfig(
+            new CurlGeneratingInterceptor(
+                Options.builder().dontLogStacktrace().build(), Arrays.asList(disabled, enabled)));
+
+    // when
+    given()
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .config(restAssuredConfig)
+        .when()
+        .get("/shouldNotSerializeCurlForDisabledHandlers")
+        .then()
+        .statusCode(200);
+
+    // then
+    assertThat(commands.size(), is(1));
+    assertThat(serializations.get(), is(0));
+  }
+
   @Test
   public void shouldLogStacktraceWhenEnabled() {
 
@@ -114,7 +164,45 @@ public class CurlGeneratingInterceptorTest {
         firstEvent.getMessage(),
         both(startsWith("curl"))
             .and(containsString("generated"))
-            .and(containsString(("java.lang.Thread.getStackTrace"))));
+            .and(containsString(("shouldLogStacktraceWhenEnabled"))));
+  }
+
+  @Test
+  public void shouldLogOnlyStackFramesFromGivenPackagesUpToMaxDepth() {
+    // given
+    log = TestLoggerFactory.getTestLogger("curl");
+    Options options =
+        Options.builder()
+            .logStacktrace()
+            .onlyStackFramesFrom("com.github.dzieciou.testing.curl.")
+            .stacktraceMaxDepth(1)
+            .build();
+    final List<String> curls = new ArrayList<>();
+    CurlHandler handler = (curl, options1) -> curls.add(curl);
+    RestAssuredConfig restAssuredConfig =
+        getRestAssuredConfig(
+            new CurlGeneratingInterceptor(options, Collections.singletonList(handler)));
+
+    // when
+    given()
+        .redirects()
+        .follow(false)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .config(restAssuredConfig)
+        .when()
+        .get("/shouldLogOnlyStackFramesFromGivenPackages")
+        .then()
+        .statusCode(200);
+
+    // then
+    String[] frames = curls.get(0).split("\tat ");
+    assertThat(frames.length, is(2));
+    assertThat(
+        frames[1],
+        startsWith(
+            CurlGeneratingInterceptorTest.class.getName()
+                + ".shouldLogOnlyStackFramesFromGivenPackagesUpToMaxDepth"));
   }
 
   @Test
@@ -144,6 +232,111 @@ public class CurlGeneratingInterceptorTest {
     assertThat(curls.get(0), is(startsWith("curl")));
   }
 
+  @Test
+  public void shouldNotGenerateCurlWhenNoHandlerIsEnabled() {
+    // given
+    log = TestLoggerFactory.getTestLogger("curl");
+    Options options = Options.builder().logStacktrace().build();
+    final List<String> curls = new ArrayList<>();
+    CurlHandler handler =
+        new CurlHandler() {
+          @Override
+          public void handle(String curl, Options options) {
+            curls.add(curl);
+          }
+
+          @Override
+          public boolean isEnabled(Options options) {
+            return false;
+          }
+        };
+    RestAssuredConfig restAssuredConfig =
+        getRestAssuredConfig(
+            new CurlGeneratingInterceptor(options, Collections.singletonList(handler)));
+
+    // when
+    given()
+        .redirects()
+        .follow(false)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .config(restAssuredConfig)
+        .when()
+        .get("/shouldNotGenerateCurlWhenNoHandlerIsEnabled")
+        .then()
+        .statusCode(200);
+
+    // then
+    assertThat(curls.isEmpty(), is(true));
+  }
+
+  @Test
+  public void shouldHandleCurlOnBackgroundThreadWhenProcessingAsynchronously() throws Exception {
+    // given
+    log = TestLoggerFactory.getTestLogger("curl");
+    Options options = Options.builder().processAsynchronously().build();
+    final List<String> curls = new CopyOnWriteArrayList<>();
+    final List<Thread> threads = new CopyOnWriteArrayList<>();
+    final CountDownLatch handled = new CountDownLatch(1);
+    CurlHandler handler =
+        (curl, options1) -> {
+          curls.add(curl);
+          threads.add(Thread.currentThread());
+          handled.countDown();
+        };
+    CurlGeneratingInterceptor interceptor =
+        new CurlGeneratingInterceptor(options, Collections.singletonList(handler));
+    RestAssuredConfig restAssuredConfig = getRestAssuredConfig(interceptor);
+
+    // when
+    given()
+        .redirects()
+        .follow(false)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .config(restAssuredConfig)
+        .when()
+        .get("/shouldHandleCurlAsynchronously")
+        .then()
+        .statusCode(200);
+
+    // then
+    assertThat(handled.await(5, TimeUnit.SECONDS), is(true));
+    interceptor.close();
+    assertThat(curls.size(), is(1));
+    assertThat(curls.get(0), startsWith("curl"));
+    assertThat(threads.get(0), not(Thread.currentThread()));
+    assertThat(interceptor.getDroppedCount(), is(0L));
+  }
+
+  @Test
+  public void shouldCaptureNonRepeatableEntityWhileItIsSent() throws Exception {
+    // given
+    log = TestLoggerFactory.getTestLogger("curl");
+    Options options = Options.builder().dontLogStacktrace().build();
+    final List<String> curls = new ArrayList<>();
+    CurlHandler handler = (curl, options1) -> curls.add(curl);
+    CurlGeneratingInterceptor interceptor =
+        new CurlGeneratingInterceptor(options, Collections.singletonList(handler));
+    HttpClient client = new MyHttpClientFactory(interceptor).createHttpClient();
+    HttpPost post = new HttpPost(MOCK_BASE_URI + ":" + MOCK_PORT + "/nonRepeatable");
+    post.addHeader("Content-Type", "text/plain");
+    InputStreamEntity entity =
+        new InputStreamEntity(
+            new ByteArrayInputStream("streamed body".getBytes(StandardCharsets.UTF_8)));
+    post.setEntity(entity);
+
+    // when
+    HttpResponse response = client.execute(post);
+    EntityUtils.consume(response.getEntity());
+
+    // then
+    assertThat(entity.isRepeatable(), is(false));
+    assertThat(curls.size(), is(1));
+    assertThat(curls.get(0), containsString("--data-binary 'streamed body'"));
+    mockServer.verify(request().withPath("/nonRepeatable").withBody("streamed body"));
+  }
+
   @AfterMethod
   public void clearLoggers() {
     log.clearAll();
@@ -29,4 +29,20 @@ public class CurlLoggerTest {
     assertThat(firstEvent.getLevel().name(), is(Level.ERROR.name()));
     assertThat(firstEvent.getMessage(), startsWith("curl"));
   }
+
+  @Test
+  public void shouldBeEnabledOnlyWhenLogLevelIsEnabled() {
+    // given
+    TestLogger log = TestLoggerFactory.getTestLogger("curl");
+    log.setEnabledLevelsForAllThreads(uk.org.lidalia.slf4jext.Level.ERROR);
+    CurlHandler handler = new CurlLogger();
+
+    try {
+      // then
+      assertThat(handler.isEnabled(Options.builder().useLogLevel(Level.ERROR).build()), is(true));
+      assertThat(handler.isEnabled(Options.builder().useLogLevel(Level.DEBUG).build()), is(false));
+    } finally {
+      log.setEnabledLevelsForAllThreads(uk.org.lidalia.slf4jext.Level.enablableValueSet());
+    }
+  }
 }
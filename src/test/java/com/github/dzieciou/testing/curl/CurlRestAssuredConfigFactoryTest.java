@@ -2,7 +2,12 @@ package com.github.dzieciou.testing.curl;
 
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.instanceOf;
 import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
 import static org.mockserver.integration.ClientAndServer.startClientAndServer;
 import static org.mockserver.model.HttpRequest.request;
 import static org.mockserver.model.HttpResponse.response;
@@ -12,12 +17,18 @@ import io.restassured.config.HttpClientConfig;
 import io.restassured.config.RestAssuredConfig;
 import io.restassured.specification.RequestSpecification;
 import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.apache.http.HttpException;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpRequestInterceptor;
 import org.apache.http.client.HttpClient;
 import org.apache.http.impl.client.AbstractHttpClient;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.protocol.HttpContext;
 import org.hamcrest.Description;
 import org.hamcrest.TypeSafeDiagnosingMatcher;
@@ -115,6 +126,86 @@ public class CurlRestAssuredConfigFactoryTest {
     request.post("/");
   }
 
+  @Test(timeOut = 30000)
+  public void shouldReuseHttpClientWithPooledConnections() {
+    RestAssuredConfig config =
+        CurlRestAssuredConfigFactory.createConfig(
+            Options.builder()
+                .reuseHttpClient()
+                .maxConnectionsPerRoute(2)
+                .bufferResponsesUpTo(1024)
+                .build());
+    RequestSpecification request =
+        RestAssured.given().baseUri(MOCK_BASE_URI).port(MOCK_PORT).config(config).when();
+
+    // more requests than pooled connections, none of them reading response body
+    for (int i = 0; i < 5; i++) {
+      request.get("/reused").then().statusCode(200);
+    }
+
+    AbstractHttpClient client =
+        (AbstractHttpClient) config.getHttpClientConfig().httpClientInstance();
+    assertThat(config.getHttpClientConfig().httpClientInstance(), sameInstance(client));
+    assertThat(client.getConnectionManager(), instanceOf(PoolingClientConnectionManager.class));
+    assertThat(
+        ((PoolingClientConnectionManager) client.getConnectionManager()).getDefaultMaxPerRoute(),
+        equalTo(2));
+    int curlInterceptors = 0;
+    for (int i = 0; i < client.getRequestInterceptorCount(); i++) {
+      if (client.getRequestInterceptor(i) instanceof CurlGeneratingInterceptor) {
+        curlInterceptors++;
+      }
+    }
+    assertThat(curlInterceptors, equalTo(1));
+  }
+
+  @Test
+  public void shouldLogOnlyFailedExchanges() throws IOException {
+    List<String> curls = new CopyOnWriteArrayList<>();
+    RestAssuredConfig config =
+        CurlRestAssuredConfigFactory.createConfig(
+            Options.builder().useShortForm().logOnlyIf(Exchange.failed()).build(),
+            Collections.singletonList((curl, options) -> curls.add(curl)));
+
+    RestAssured.given()
+        .config(config)
+        .baseUri(MOCK_BASE_URI)
+        .port(MOCK_PORT)
+        .when()
+        .get("/succeeded")
+        .then()
+        .statusCode(200);
+    // server closing each connection without a response
+    try (ServerSocket server = new ServerSocket(0)) {
+      Thread acceptor =
+          new Thread(
+              () -> {
+                while (!server.isClosed()) {
+                  try (Socket socket = server.accept()) {
+                    socket.getInputStream().read();
+                  } catch (IOException e) {
+                    // closed
+                  }
+                }
+              });
+      acceptor.setDaemon(true);
+      acceptor.start();
+      try {
+        RestAssured.given()
+            .config(config)
+            .baseUri(MOCK_BASE_URI)
+            .port(server.getLocalPort())
+            .when()
+            .get("/failed");
+      } catch (Exception expected) {
+        // no response
+      }
+    }
+
+    assertThat(curls, contains(startsWith("curl 'http://localhost:")));
+    assertThat(curls.get(0), containsString("/failed'"));
+  }
+
   @AfterClass
   public void closeMock() {
     mockServer.stop();
@@ -0,0 +1,123 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class DuplicateSuppressorTest {
+
+  private static final long WINDOW = TimeUnit.SECONDS.toNanos(10);
+
+  private final AtomicLong clock = new AtomicLong(-TimeUnit.HOURS.toNanos(1));
+
+  @Test
+  public void shouldSuppressRepeatsWithinTimeWindow() {
+    DuplicateSuppressor suppressor = new DuplicateSuppressor(WINDOW, Long.MAX_VALUE, clock::get);
+
+    assertThat(suppressor.offer(command("/status")), is(empty()));
+    for (int i = 0; i < 312; i++) {
+      assertThat(suppressor.offer(command("/status")), is(nullValue()));
+    }
+    assertThat(suppressor.offer(command("/other")), is(empty()));
+
+    clock.addAndGet(WINDOW);
+    assertThat(
+        messages(suppressor.offer(command("/status"))),
+        contains("previous command repeated 312 times (GET http://localhost/status)"));
+    assertThat(suppressor.offer(command("/status")), is(nullValue()));
+  }
+
+  @Test
+  public void shouldSuppressLimitedNumberOfRepeats() {
+    DuplicateSuppressor suppressor = new DuplicateSuppressor(WINDOW, 2, clock::get);
+
+    assertThat(suppressor.offer(command("/status")), is(empty()));
+    assertThat(suppressor.offer(command("/status")), is(nullValue()));
+    assertThat(suppressor.offer(command("/status")), is(nullValue()));
+    assertThat(
+        messages(suppressor.offer(command("/status"))),
+        contains("previous command repeated 2 times (GET http://localhost/status)"));
+  }
+
+  @Test
+  public void shouldReportRepeatsWhenFlushed() {
+    DuplicateSuppressor suppressor = new DuplicateSuppressor(WINDOW, Long.MAX_VALUE, clock::get);
+    suppressor.offer(command("/a"));
+    suppressor.offer(command("/a"));
+    suppressor.offer(command("/b"));
+
+    assertThat(
+        messages(suppressor.flush()),
+        contains("previous command repeated 1 times (GET http://localhost/a)"));
+    assertThat(suppressor.flush(), is(empty()));
+  }
+
+  @Test
+  public void shouldReportClosedWindowsOncePerWindowDuration() {
+    DuplicateSuppressor suppressor = new DuplicateSuppressor(WINDOW, Long.MAX_VALUE, clock::get);
+    suppressor.offer(command("/a"));
+    suppressor.offer(command("/a"));
+    clock.addAndGet(WINDOW / 2);
+    suppressor.offer(command("/b"));
+    suppressor.offer(command("/b"));
+
+    assertThat(suppressor.expire(), is(empty()));
+    clock.addAndGet(WINDOW / 2);
+    assertThat(
+        messages(suppressor.offer(command("/c"))),
+        contains("previous command repeated 1 times (GET http://localhost/a)"));
+    clock.addAndGet(WINDOW / 2);
+    assertThat(suppressor.expire(), is(empty()));
+    clock.addAndGet(WINDOW / 2);
+    assertThat(
+        messages(suppressor.expire()),
+        contains("previous command repeated 1 times (GET http://localhost/b)"));
+  }
+
+  @Test
+  public void shouldLetThroughUntrackedCommandsWhenFull() {
+    DuplicateSuppressor suppressor = new DuplicateSuppressor(WINDOW, Long.MAX_VALUE, clock::get);
+    for (int i = 0; i < DuplicateSuppressor.MAX_TRACKED_COMMANDS; i++) {
+      suppressor.offer(command("/" + i));
+    }
+
+    assertThat(suppressor.offer(command("/new")), is(empty()));
+    assertThat(suppressor.offer(command("/new")), is(empty()));
+
+    // closed windows make room for new commands
+    clock.addAndGet(WINDOW);
+    suppressor.offer(command("/new"));
+    assertThat(suppressor.offer(command("/new")), is(nullValue()));
+  }
+
+  @Test
+  public void shouldIgnoreOrderOfHeadersInFingerprint() {
+    CurlCommand first = command("/").addHeader("A", "1").addHeader("B", "2");
+    CurlCommand second = command("/").addHeader("B", "2").addHeader("A", "1");
+    CurlCommand other = command("/").addHeader("A", "2").addHeader("B", "1");
+    CurlCommand withData = command("/").addHeader("A", "1").addHeader("B", "2").addDataBinary("x");
+
+    assertThat(first.fingerprint(), equalTo(second.fingerprint()));
+    assertThat(first.fingerprint(), not(equalTo(other.fingerprint())));
+    assertThat(first.fingerprint(), not(equalTo(withData.fingerprint())));
+  }
+
+  private static CurlCommand command(String path) {
+    return new CurlCommand().setUrl("http://localhost" + path);
+  }
+
+  private static List<String> messages(List<DuplicateSuppressor.Summary> summaries) {
+    return summaries.stream().map(Object::toString).collect(Collectors.toList());
+  }
+}
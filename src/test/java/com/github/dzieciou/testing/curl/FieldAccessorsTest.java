@@ -0,0 +1,29 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Optional;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class FieldAccessorsTest {
+
+  @Test
+  public void shouldReadPrivateFieldDeclaredInSuperclass() {
+    assertThat(FieldAccessors.getFieldValue(new Child(), "secret"), is(Optional.of("parent")));
+  }
+
+  @Test
+  public void shouldReturnEmptyForMissingFieldEveryTime() {
+    assertThat(FieldAccessors.getFieldValue(new Child(), "missing"), is(Optional.empty()));
+    assertThat(FieldAccessors.getFieldValue(new Child(), "missing"), is(Optional.empty()));
+  }
+
+  private static class Parent {
+
+    private final String secret = "parent";
+  }
+
+  private static class Child extends Parent {}
+}
@@ -0,0 +1,75 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class GeneratedCurlTest {
+
+  private static final Options OPTIONS =
+      Options.builder().targetPlatform(Platform.UNIX).useShortForm().printSingleliner().build();
+
+  @Test
+  public void shouldSerializeCommandOnlyOnce() {
+    GeneratedCurl curl =
+        new GeneratedCurl(new CurlCommand().setUrl("http://test.com"), OPTIONS, null);
+
+    String message = curl.getMessage();
+
+    assertThat(message, equalTo("curl 'http://test.com'"));
+    assertThat(curl.getMessage(), sameInstance(message));
+    assertThat(curl.messageSupplier().get(), sameInstance(message));
+  }
+
+  @Test
+  public void shouldAppendStacktraceToMessage() {
+    StackTraceElement[] stacktrace = {new StackTraceElement("Foo", "bar", "Foo.java", 1)};
+    GeneratedCurl curl =
+        new GeneratedCurl(new CurlCommand().setUrl("http://test.com"), OPTIONS, stacktrace);
+
+    assertThat(curl.getMessage(), containsString("generated"));
+    assertThat(curl.getMessage(), containsString("\tat Foo.bar(Foo.java:1)"));
+  }
+
+  @Test
+  public void shouldPassSerializedMessageToHandlersNotOverridingDefault() {
+    StringBuilder handled = new StringBuilder();
+    CurlHandler handler = (curl, options) -> handled.append(curl);
+
+    handler.handle(
+        new GeneratedCurl(new CurlCommand().setUrl("http://test.com"), OPTIONS, null), OPTIONS);
+
+    assertThat(handled.toString(), equalTo("curl 'http://test.com'"));
+  }
+
+  @Test
+  public void shouldPassCommandToCommandHandlers() {
+    CurlCommand command = new CurlCommand().setUrl("http://test.com");
+    List<CurlCommand> handled = new ArrayList<>();
+    CurlCommandHandler handler = (curl, options) -> handled.add(curl);
+
+    handler.handle(new GeneratedCurl(command, OPTIONS, null), OPTIONS);
+
+    assertThat(handled, contains(sameInstance(command)));
+  }
+
+  @Test
+  public void shouldIgnoreCurlExpressionsInCommandHandlers() {
+    List<CurlCommand> handled = new ArrayList<>();
+    CurlCommandHandler handler = (curl, options) -> handled.add(curl);
+
+    handler.handle("curl 'http://test.com'", OPTIONS);
+    handler.handleSummary("previous command repeated 2 times (GET http://test.com)", OPTIONS);
+
+    assertThat(handled, is(empty()));
+  }
+}
@@ -1,11 +1,27 @@
 package com.github.dzieciou.testing.curl;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.empty;
 import static org.hamcrest.Matchers.equalTo;
-
+import static org.hamcrest.Matchers.is;
+import static org.testng.Assert.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpDelete;
@@ -13,7 +29,11 @@ import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpRequest;
 import org.apache.http.message.BasicNameValuePair;
 import org.testng.annotations.Test;
 
@@ -36,6 +56,26 @@ public class Http2CurlTest {
         equalTo("curl 'https://test.com:8080/items/query?x=y#z' --compressed -k -v"));
   }
 
+  @Test
+  public void shouldInferSchemeAndHostOfRouteRelativeRequest() throws Exception {
+    HttpRequestWrapper request = HttpRequestWrapper.wrap(new HttpGet("https://test.com/items"));
+    request.setURI(URI.create("/items?x=y"));
+    request.addHeader("Host", "test.com");
+    assertThat(
+        getNonWindowsHttp2Curl().generateCurl(request),
+        equalTo("curl 'https://test.com/items?x=y' -H 'Host: test.com' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldInferUrlOfConnectRequest() throws Exception {
+    BasicHttpRequest request = new BasicHttpRequest("CONNECT", "test.com:443");
+    request.addHeader("Host", "test.com:443");
+    assertThat(
+        getNonWindowsHttp2Curl().generateCurl(request),
+        equalTo(
+            "curl 'https://test.com:443' -X CONNECT -H 'Host: test.com:443' --compressed -k -v"));
+  }
+
   @Test
   public void shouldPrintBasicAuthnUserCredentials() throws Exception {
     HttpGet getRequest = new HttpGet("http://test.com:8080/items/query?x=y#z");
@@ -68,6 +108,23 @@ public class Http2CurlTest {
                 + " --compressed -k -v"));
   }
 
+  @Test
+  public void shouldUseFirstValidBasicAuthnHeaderAndKeepOtherHeadersInOrder() throws Exception {
+    HttpGet getRequest = new HttpGet("http://test.com:8080/items/query?x=y#z");
+    String encodedCredentials = Base64.getEncoder().encodeToString("xx:yy".getBytes());
+    getRequest.addHeader("X-First", "1");
+    getRequest.addHeader("Authorization", "Basic xxx");
+    getRequest.addHeader("Cookie", "A=B");
+    getRequest.addHeader("Authorization", "Basic " + encodedCredentials);
+    getRequest.addHeader("X-Last", "2");
+    assertThat(
+        getNonWindowsHttp2Curl().generateCurl(getRequest),
+        equalTo(
+            "curl 'http://test.com:8080/items/query?x=y#z' -b 'A=B'"
+                + " -H 'X-First: 1' -H 'Authorization: Basic xxx' -H 'X-Last: 2'"
+                + " -u 'xx:yy' --compressed -k -v"));
+  }
+
   @Test
   public void shouldPrintPostRequestProperly() throws Exception {
     HttpPost postRequest = new HttpPost("http://google.pl/");
@@ -242,6 +299,170 @@ public class Http2CurlTest {
                 + " --data-binary 'param1=param1_value' --compressed -k -v"));
   }
 
+  @Test
+  public void shouldPrintBodyAsBytesWhenEnabled() throws Exception {
+    HttpPut putRequest = new HttpPut("http://test.com/items/12345");
+    putRequest.setEntity(
+        new StringEntity("{\"name\":\"Żółw\"}", ContentType.APPLICATION_JSON)); // UTF-8
+    putRequest.setHeader("Content-Type", "application/json");
+
+    Options options =
+        Options.builder()
+            .targetPlatform(Platform.UNIX)
+            .useShortForm()
+            .printSingleliner()
+            .escapeNonAscii()
+            .printBodyAsBytes()
+            .build();
+
+    assertThat(
+        new Http2Curl(options).generateCurl(putRequest),
+        equalTo(
+            "curl 'http://test.com/items/12345' -X PUT -H 'Content-Type: application/json'"
+                + " --data-binary $'{\"name\":\"\\xc5\\xbb\\xc3\\xb3\\xc5\\x82w\"}' --compressed -k"
+                + " -v"));
+  }
+
+  @Test
+  public void shouldTruncateOversizedBodyWithDigest() throws Exception {
+    HttpPut putRequest = new HttpPut("http://test.com/items/12345");
+    putRequest.setEntity(new StringEntity("0123456789abcdefghij"));
+    putRequest.setHeader("Content-Type", "text/plain");
+
+    Options options =
+        Options.builder()
+            .targetPlatform(Platform.UNIX)
+            .useShortForm()
+            .printSingleliner()
+            .maxInlineBodySize(10)
+            .truncateOversizedBody()
+            .build();
+
+    String sha256 =
+        String.format(
+            "%064x",
+            new BigInteger(
+                1,
+                MessageDigest.getInstance("SHA-256")
+                    .digest("0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII))));
+    assertThat(
+        new Http2Curl(options).generateCurl(putRequest),
+        equalTo(
+            "curl 'http://test.com/items/12345' -X PUT -H 'Content-Type: text/plain'"
+                + " --data-binary '0123456789...[truncated, 20 bytes in total, SHA-256: "
+                + sha256
+                + "]' --compressed -k -v"));
+  }
+
+  @Test
+  public void shouldSpoolOversizedBodyToFile() throws Exception {
+    HttpPut putRequest = new HttpPut("http://test.com/items/12345");
+    putRequest.setEntity(new StringEntity("0123456789abcdefghij"));
+    putRequest.setHeader("Content-Type", "text/plain");
+    Path spoolDirectory = Files.createTempDirectory("curl-spool-");
+
+    Options options =
+        Options.builder()
+            .targetPlatform(Platform.UNIX)
+            .useShortForm()
+            .printSingleliner()
+            .maxInlineBodySize(10)
+            .spoolOversizedBody(spoolDirectory)
+            .build();
+
+    String curl = new Http2Curl(options).generateCurl(putRequest);
+
+    List<Path> spooledFiles;
+    try (Stream<Path> files = Files.list(spoolDirectory)) {
+      spooledFiles = files.collect(Collectors.toList());
+    }
+    assertThat(spooledFiles.size(), equalTo(1));
+    Path spooledFile = spooledFiles.get(0);
+    assertThat(
+        new String(Files.readAllBytes(spooledFile), StandardCharsets.US_ASCII),
+        equalTo("0123456789abcdefghij"));
+    assertThat(
+        curl,
+        equalTo(
+            "curl 'http://test.com/items/12345' -X PUT -H 'Content-Type: text/plain'"
+                + " --data-binary '@"
+                + spooledFile
+                + "' --compressed -k -v"));
+    Files.delete(spooledFile);
+    Files.delete(spoolDirectory);
+  }
+
+  @Test
+  public void shouldDeleteSpooledBodyIfReadingItFails() throws Exception {
+    HttpPut putRequest = new HttpPut("http://test.com/items/12345");
+    InputStream failingStream =
+        new SequenceInputStream(
+            new ByteArrayInputStream("0123456789abcdefghij".getBytes(StandardCharsets.US_ASCII)),
+            new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("Connection reset");
+              }
+            });
+    putRequest.setEntity(new InputStreamEntity(failingStream));
+    putRequest.setHeader("Content-Type", "text/plain");
+    Path spoolDirectory = Files.createTempDirectory("curl-spool-");
+
+    Options options =
+        Options.builder()
+            .targetPlatform(Platform.UNIX)
+            .maxInlineBodySize(10)
+            .spoolOversizedBody(spoolDirectory)
+            .build();
+
+    assertThrows(IOException.class, () -> new Http2Curl(options).generateCurl(putRequest));
+
+    try (Stream<Path> files = Files.list(spoolDirectory)) {
+      assertThat(files.count(), equalTo(0L));
+    }
+    Files.delete(spoolDirectory);
+  }
+
+  @Test
+  public void shouldNotPassPartiallySentBodyOfStreamedEntity() throws Exception {
+    HttpPut putRequest = new HttpPut("http://test.com/items/12345");
+    InputStream failingStream =
+        new SequenceInputStream(
+            new ByteArrayInputStream("0123456789".getBytes(StandardCharsets.US_ASCII)),
+            new InputStream() {
+              @Override
+              public int read() throws IOException {
+                throw new IOException("Connection reset");
+              }
+            });
+    putRequest.setEntity(new InputStreamEntity(failingStream));
+    putRequest.setHeader("Content-Type", "text/plain");
+    List<RequestSnapshot> snapshots = new ArrayList<>();
+
+    getNonWindowsHttp2Curl().snapshot(putRequest, snapshots::add);
+
+    assertThrows(
+        IOException.class, () -> putRequest.getEntity().writeTo(new ByteArrayOutputStream()));
+    assertThat(snapshots, is(empty()));
+  }
+
+  @Test
+  public void shouldKeepRequestMethodNotPrintedExplicitly() throws Exception {
+    HttpPost postRequest = new HttpPost("http://test.com/items");
+    postRequest.setEntity(new StringEntity("{}"));
+    postRequest.setHeader("Content-Type", "application/json");
+    Http2Curl http2Curl = getNonWindowsHttp2Curl();
+
+    CurlCommand post = http2Curl.generateCurlCommand(http2Curl.snapshot(postRequest));
+    CurlCommand options =
+        http2Curl.generateCurlCommand(
+            http2Curl.snapshot(new BasicHttpRequest("OPTIONS", "http://test.com/items")));
+
+    assertThat(post.getMethod(), equalTo("POST"));
+    assertThat(options.getMethod(), equalTo("OPTIONS"));
+    assertThat(new CurlCommand().addFormPart("name", "value").getMethod(), equalTo("POST"));
+  }
+
   public Http2Curl getNonWindowsHttp2Curl() {
     return new Http2Curl(
         Options.builder().targetPlatform(Platform.UNIX).useShortForm().printSingleliner().build());
@@ -0,0 +1,108 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class SamplingPolicyTest {
+
+  @Test
+  public void shouldSampleAllByDefault() {
+    SamplingPolicy.Sampler sampler = Options.builder().build().samplingPolicy().newSampler();
+    for (int i = 0; i < 100; i++) {
+      assertThat(sampler.sample(() -> "GET host/"), is(true));
+    }
+  }
+
+  @Test
+  public void shouldSampleOneInN() {
+    SamplingPolicy.Sampler sampler = SamplingPolicy.oneIn(4).newSampler();
+    int sampled = 0;
+    for (int i = 0; i < 100_000; i++) {
+      if (sampler.sample(() -> "GET host/")) {
+        sampled++;
+      }
+    }
+    assertThat(sampled, allOf(greaterThan(23_000), lessThan(27_000)));
+  }
+
+  @Test
+  public void shouldSampleFirstThenEveryNthPerEndpoint() {
+    SamplingPolicy.Sampler sampler = SamplingPolicy.firstThenEveryNth(2, 3).newSampler();
+    List<Integer> sampledA = new ArrayList<>();
+    List<Integer> sampledB = new ArrayList<>();
+    for (int i = 1; i <= 10; i++) {
+      if (sampler.sample(() -> "GET host/a")) {
+        sampledA.add(i);
+      }
+      if (i <= 2 && sampler.sample(() -> "GET host/b")) {
+        sampledB.add(i);
+      }
+    }
+    assertThat(sampledA, contains(1, 2, 5, 8));
+    assertThat(sampledB, contains(1, 2));
+  }
+
+  @Test
+  public void shouldLimitRatePerEndpoint() {
+    AtomicLong clock = new AtomicLong(-TimeUnit.SECONDS.toNanos(100));
+    SamplingPolicy.Sampler sampler = SamplingPolicy.perEndpointRate(2, 3).newSampler(clock::get);
+
+    // burst
+    assertThat(countSampled(sampler, "GET host/a", 10), is(3));
+    // other endpoints have their own buckets
+    assertThat(countSampled(sampler, "GET host/b", 10), is(3));
+    // refills at a given rate
+    clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(500));
+    assertThat(countSampled(sampler, "GET host/a", 10), is(1));
+    clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+    assertThat(countSampled(sampler, "GET host/a", 10), is(3));
+  }
+
+  @Test
+  public void shouldIdentifyEndpointByPathTemplate() {
+    assertThat(
+        SamplingPolicy.endpointOfUrl("GET", "http://host:8080/users/123/orders?limit=5", ""),
+        equalTo("GET host:8080/users/{id}/orders"));
+    assertThat(
+        SamplingPolicy.endpointOfUrl(
+            "PUT", "/items/3f2b8c1e-8d4a-4c4e-9b1a-0c6d2e5f7a9b", "localhost:9999"),
+        equalTo("PUT localhost:9999/items/{id}"));
+    assertThat(
+        SamplingPolicy.endpoint("GET", "host", "//cafe//beef/"), equalTo("GET host/cafe/beef"));
+    assertThat(SamplingPolicy.endpointOfUrl("GET", "https://host", ""), equalTo("GET host/"));
+  }
+
+  @Test
+  public void shouldBoundNumberOfTrackedEndpoints() {
+    SamplingPolicy.Sampler sampler = SamplingPolicy.firstThenEveryNth(1, 1000).newSampler();
+    for (int i = 0; i < SamplingPolicy.MAX_ENDPOINTS; i++) {
+      String endpoint = "GET host/e" + i;
+      assertThat(sampler.sample(() -> endpoint), is(true));
+    }
+    // endpoints over the bound share a single counter
+    assertThat(sampler.sample(() -> "GET host/new1"), is(true));
+    assertThat(sampler.sample(() -> "GET host/new2"), is(false));
+  }
+
+  private static int countSampled(SamplingPolicy.Sampler sampler, String endpoint, int requests) {
+    int sampled = 0;
+    for (int i = 0; i < requests; i++) {
+      if (sampler.sample(() -> endpoint)) {
+        sampled++;
+      }
+    }
+    return sampled;
+  }
+}
@@ -0,0 +1,43 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+
+import java.util.Arrays;
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class StackCaptureTest {
+
+  @Test
+  public void shouldStartAtCallerOfCapture() {
+    StackTraceElement[] frames =
+        StackCapture.capture(new StackFrameFilter(Options.builder().build()));
+
+    assertThat(frames[0].getClassName(), equalTo(StackCaptureTest.class.getName()));
+    assertThat(frames[0].getMethodName(), equalTo("shouldStartAtCallerOfCapture"));
+  }
+
+  @Test
+  public void shouldSkipInternalFrames() {
+    StackTraceElement[] frames =
+        StackCapture.capture(
+            new StackFrameFilter(Options.builder().skipInternalStackFrames().build()));
+
+    assertThat(
+        Arrays.stream(frames)
+            .map(StackTraceElement::getClassName)
+            .anyMatch(
+                c -> c.startsWith("java.lang.reflect.") || c.startsWith("jdk.internal.reflect.")),
+        is(false));
+  }
+
+  @Test
+  public void shouldLimitDepth() {
+    StackTraceElement[] frames =
+        StackCapture.capture(new StackFrameFilter(Options.builder().stacktraceMaxDepth(3).build()));
+
+    assertThat(frames.length, is(3));
+  }
+}
@@ -0,0 +1,73 @@
+package com.github.dzieciou.testing.curl;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+
+import org.testng.annotations.Test;
+
+@Test(groups = "unit")
+public class StackTraceDictionaryTest {
+
+  private static final StackTraceElement[] FIRST = {
+    new StackTraceElement("Foo", "first", "Foo.java", 1)
+  };
+  private static final StackTraceElement[] SECOND = {
+    new StackTraceElement("Foo", "second", "Foo.java", 2)
+  };
+
+  @Test
+  public void shouldPrintStacktraceOnlyFirstTime() {
+    StackTraceDictionary dictionary = new StackTraceDictionary(10);
+    Options options =
+        Options.builder().targetPlatform(Platform.UNIX).internStacktraces(dictionary).build();
+
+    String first = message(options, FIRST);
+    String second = message(options, FIRST);
+
+    assertThat(first, containsString("generated stack#1"));
+    assertThat(first, containsString("\tat Foo.first(Foo.java:1)"));
+    assertThat(second, endsWith("generated stack#1"));
+    assertThat(second, not(containsString("\tat ")));
+  }
+
+  @Test
+  public void shouldPrintEvictedStacktraceAgainWithNewId() {
+    StackTraceDictionary dictionary = new StackTraceDictionary(1);
+    Options options =
+        Options.builder().targetPlatform(Platform.UNIX).internStacktraces(dictionary).build();
+
+    message(options, FIRST);
+    message(options, SECOND);
+    String again = message(options, FIRST);
+
+    assertThat(again, containsString("generated stack#3"));
+    assertThat(again, containsString("\tat Foo.first(Foo.java:1)"));
+    assertThat(dictionary.size(), is(1));
+  }
+
+  @Test
+  public void shouldDumpStacktraces() throws Exception {
+    StackTraceDictionary dictionary = new StackTraceDictionary(10);
+    Options options =
+        Options.builder().targetPlatform(Platform.UNIX).internStacktraces(dictionary).build();
+    message(options, FIRST);
+    message(options, SECOND);
+
+    StringBuilder dump = new StringBuilder();
+    dictionary.dump(dump);
+
+    assertThat(
+        dump.toString(),
+        is(
+            String.format(
+                "stack#1%n\tat Foo.first(Foo.java:1)%nstack#2%n\tat Foo.second(Foo.java:2)%n")));
+  }
+
+  private static String message(Options options, StackTraceElement[] stacktrace) {
+    return new GeneratedCurl(new CurlCommand().setUrl("http://test.com"), options, stacktrace)
+        .getMessage();
+  }
+}